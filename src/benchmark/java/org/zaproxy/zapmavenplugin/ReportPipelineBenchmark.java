@@ -0,0 +1,202 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONSerializer;
+import net.sf.json.xml.XMLSerializer;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the report pipeline, from the alerts response of ZAP to the report files, for synthetic
+ * responses of 1k to 1M alerts.
+ *
+ * The json-lib benchmarks measure the pipeline before streaming: parse the whole response, then serialize it to XML
+ * or JSON. The streaming benchmarks measure AlertReader and the report writers. Run with
+ * <code>mvn -Pbenchmark test</code>, the gc profiler reports the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReportPipelineBenchmark {
+
+    private static final String[] RISKS = { "High", "Medium", "Low", "Informational" };
+
+    private static final int PLUGINS = 40;
+
+    /**
+     * The alerts response of ZAP
+     */
+    @State(Scope.Benchmark)
+    public static class Payload {
+
+        @Param({ "1000", "10000", "100000", "1000000" })
+        public int alerts;
+
+        byte[] json;
+
+        @Setup
+        public void setup() throws IOException {
+            json = alertsJson(alerts).getBytes("UTF-8");
+        }
+    }
+
+    /**
+     * The alerts response parsed by json-lib, only set up for the json-lib benchmarks
+     */
+    @State(Scope.Benchmark)
+    public static class JsonLibPayload {
+
+        String text;
+
+        JSON json;
+
+        @Setup
+        public void setup(Payload payload) throws IOException {
+            text = new String(payload.json, "UTF-8");
+            json = JSONSerializer.toJSON(text);
+        }
+    }
+
+    @Benchmark
+    public JSON jsonLibParse(JsonLibPayload payload) {
+        return JSONSerializer.toJSON(payload.text);
+    }
+
+    @Benchmark
+    public String jsonLibXml(JsonLibPayload payload) {
+        XMLSerializer serializer = new XMLSerializer();
+        serializer.setArrayName("zap-report");
+        serializer.setElementName("alerts");
+        return serializer.write(payload.json);
+    }
+
+    @Benchmark
+    public String jsonLibJson(JsonLibPayload payload) {
+        return payload.json.toString();
+    }
+
+    @Benchmark
+    public int streamingParse(Payload payload) throws IOException {
+        AlertReader reader = reader(payload);
+        int count = 0;
+        while (reader.next() != null) {
+            count++;
+        }
+        reader.close();
+        return count;
+    }
+
+    @Benchmark
+    public int streamingXml(Payload payload) throws IOException {
+        return copy(reader(payload), new XmlAlertWriter(nullStream()));
+    }
+
+    @Benchmark
+    public int streamingJson(Payload payload) throws IOException {
+        return copy(reader(payload), new JsonAlertWriter(nullStream()));
+    }
+
+    @Benchmark
+    public int streamingHtml(Payload payload) throws IOException {
+        return copy(reader(payload), new HtmlAlertWriter(nullStream()));
+    }
+
+    @Benchmark
+    public int streamingXmlGzip(Payload payload) throws IOException {
+        return copy(reader(payload), new XmlAlertWriter(new GZIPOutputStream(nullStream(), 64 * 1024)));
+    }
+
+    @Benchmark
+    public int streamingAllFormatsParallel(Payload payload) throws IOException {
+        CompositeAlertWriter writers = new CompositeAlertWriter();
+        writers.add(new AsyncAlertWriter("xml", new XmlAlertWriter(nullStream())));
+        writers.add(new AsyncAlertWriter("html", new HtmlAlertWriter(nullStream())));
+        writers.add(new AsyncAlertWriter("json", new JsonAlertWriter(nullStream())));
+        return copy(reader(payload), writers);
+    }
+
+    @Benchmark
+    public int streamingAggregate(Payload payload) throws IOException {
+        return copy(reader(payload), new AlertAggregator(nullStream(), nullStream(), 5));
+    }
+
+    private static AlertReader reader(Payload payload) throws IOException {
+        return new AlertReader(new ByteArrayInputStream(payload.json));
+    }
+
+    private static OutputStream nullStream() {
+        return new NullOutputStream();
+    }
+
+    private static int copy(AlertReader reader, AlertWriter writer) throws IOException {
+        int count = 0;
+        Alert alert;
+        while ((alert = reader.next()) != null) {
+            writer.write(alert);
+            count++;
+        }
+        reader.close();
+        writer.close();
+        return count;
+    }
+
+    /**
+     * Build an alerts response like ZAP's, with a few plugins raising alerts on many URLs
+     *
+     * @param alerts the number of alerts
+     * @return the JSON response
+     */
+    static String alertsJson(int alerts) {
+        StringBuilder sb = new StringBuilder(alerts * 400);
+        sb.append("{\"alerts\":[");
+        for (int i = 0; i < alerts; i++) {
+            int plugin = i % PLUGINS;
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"alert\":\"Synthetic alert ").append(plugin)
+                    .append("\",\"risk\":\"").append(RISKS[plugin % RISKS.length])
+                    .append("\",\"reliability\":\"Warning\",\"url\":\"http://localhost:8080/app/page")
+                    .append(i / PLUGINS).append("?id=").append(i)
+                    .append("\",\"param\":\"param").append(plugin % 7)
+                    .append("\",\"evidence\":\"<script>alert(").append(i).append(")</script>")
+                    .append("\",\"attack\":\"\",\"other\":\"\",\"description\":\"Description of synthetic alert ")
+                    .append(plugin).append(", long enough to look like the descriptions ZAP reports for its plugins.")
+                    .append("\",\"solution\":\"Validate all input and encode all output.")
+                    .append("\",\"reference\":\"https://www.owasp.org/index.php/Top_10\"}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single alert as reported by the ZAP API.
+ *
+ * The fields are kept in the order ZAP sent them, so the reports look the same as before.
+ */
+public class Alert {
+
+    private final Map<String, String> fields = new LinkedHashMap<String, String>();
+
+    /**
+     * Set a field of the alert
+     *
+     * @param name the field name, e.g. "risk"
+     * @param value the field value
+     */
+    public void put(String name, String value) {
+        fields.put(name, value);
+    }
+
+    /**
+     * Get a field of the alert
+     *
+     * @param name the field name
+     * @return the value or null if the alert has no such field
+     */
+    public String get(String name) {
+        return fields.get(name);
+    }
+
+    /**
+     * @return all fields in the order they were reported
+     */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    public String getUrl() {
+        return get("url");
+    }
+
+    public String getRisk() {
+        return get("risk");
+    }
+
+    public String getParam() {
+        return get("param");
+    }
+
+    public String getEvidence() {
+        return get("evidence");
+    }
+
+    /**
+     * @return the id of the plugin which raised the alert, or the name of the alert for versions of ZAP
+     *         without plugin ids
+     */
+    public String getPlugin() {
+        String pluginId = get("pluginId");
+        return (pluginId != null) ? pluginId : get("alert");
+    }
+
+    public String toString() {
+        return fields.toString();
+    }
+}
@@ -0,0 +1,345 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Collapses the alerts with the same plugin, risk and parameter into one group with a count and a few sample URLs,
+ * and writes the groups as a report when closed.
+ *
+ * The groups are kept in parallel arrays indexed through an open addressing table of 64 bit key hashes, so a group
+ * costs a few array slots instead of a map entry and a key object per alert.
+ */
+public class AlertAggregator implements AlertWriter {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final XMLOutputFactory XML_FACTORY = XMLOutputFactory.newInstance();
+
+    private final OutputStream xmlOut;
+
+    private final OutputStream jsonOut;
+
+    private final int maxSampleUrls;
+
+    private final ScanStatus status;
+
+    /** Interned strings, so repeated names and parameters are stored once */
+    private final Map<String, String> strings = new HashMap<String, String>();
+
+    /** Open addressing table: key hash and group index + 1, 0 for a free slot */
+    private long[] slotHashes = new long[INITIAL_CAPACITY * 2];
+    private int[] slotGroups = new int[INITIAL_CAPACITY * 2];
+
+    private int groups;
+    private String[] plugins = new String[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private String[] risks = new String[INITIAL_CAPACITY];
+    private String[] params = new String[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private String[][] sampleUrls = new String[INITIAL_CAPACITY][];
+
+    /**
+     * @param xmlOut the stream for the grouped XML report
+     * @param jsonOut the stream for the grouped JSON report, null for no JSON report
+     * @param maxSampleUrls the number of URLs kept per group
+     */
+    public AlertAggregator(OutputStream xmlOut, OutputStream jsonOut, int maxSampleUrls) {
+        this(xmlOut, jsonOut, maxSampleUrls, null);
+    }
+
+    /**
+     * @param xmlOut the stream for the grouped XML report
+     * @param jsonOut the stream for the grouped JSON report, null for no JSON report
+     * @param maxSampleUrls the number of URLs kept per group
+     * @param status the status of the scan, an incomplete scan is noted after the groups; null for none
+     */
+    public AlertAggregator(OutputStream xmlOut, OutputStream jsonOut, int maxSampleUrls, ScanStatus status) {
+        this.xmlOut = xmlOut;
+        this.jsonOut = jsonOut;
+        this.maxSampleUrls = Math.max(0, maxSampleUrls);
+        this.status = status;
+    }
+
+    public void write(Alert alert) {
+        String plugin = nonNull(alert.getPlugin());
+        String risk = nonNull(alert.getRisk());
+        String param = nonNull(alert.getParam());
+
+        int group = group(plugin, risk, param);
+        if (group < 0) {
+            group = addGroup(plugin, alert.get("alert"), risk, param);
+        }
+        counts[group]++;
+        addSample(group, alert.getUrl());
+    }
+
+    /**
+     * @return the number of groups so far
+     */
+    public int size() {
+        return groups;
+    }
+
+    /**
+     * Write the grouped report, the groups with the most alerts first
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        Integer[] order = new Integer[groups];
+        for (int i = 0; i < groups; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return counts[b.intValue()] - counts[a.intValue()];
+            }
+        });
+
+        try {
+            writeXml(order);
+        } finally {
+            if (jsonOut != null) {
+                writeJson(order);
+            }
+        }
+    }
+
+    private int group(String plugin, String risk, String param) {
+        long hash = hash(plugin, risk, param);
+        int mask = slotHashes.length - 1;
+        for (int slot = (int) (hash ^ (hash >>> 32)) & mask; slotGroups[slot] != 0; slot = (slot + 1) & mask) {
+            int group = slotGroups[slot] - 1;
+            if (slotHashes[slot] == hash && plugins[group].equals(plugin) && risks[group].equals(risk)
+                    && params[group].equals(param)) {
+                return group;
+            }
+        }
+        return -1;
+    }
+
+    private int addGroup(String plugin, String name, String risk, String param) {
+        if (groups == counts.length) {
+            growGroups();
+        }
+        int group = groups++;
+        plugins[group] = intern(plugin);
+        names[group] = intern(nonNull(name));
+        risks[group] = intern(risk);
+        params[group] = intern(param);
+
+        if (groups * 2 > slotHashes.length) {
+            rehash(slotHashes.length * 2);
+        } else {
+            insert(hash(plugin, risk, param), group);
+        }
+        return group;
+    }
+
+    private void addSample(int group, String url) {
+        if (url == null || maxSampleUrls == 0) {
+            return;
+        }
+        String[] samples = sampleUrls[group];
+        if (samples == null) {
+            samples = new String[maxSampleUrls];
+            sampleUrls[group] = samples;
+        }
+        for (int i = 0; i < samples.length; i++) {
+            if (samples[i] == null) {
+                samples[i] = url;
+                return;
+            }
+            if (samples[i].equals(url)) {
+                return;
+            }
+        }
+    }
+
+    private void insert(long hash, int group) {
+        int mask = slotHashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (slotGroups[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slotHashes[slot] = hash;
+        slotGroups[slot] = group + 1;
+    }
+
+    private void rehash(int capacity) {
+        slotHashes = new long[capacity];
+        slotGroups = new int[capacity];
+        for (int group = 0; group < groups; group++) {
+            insert(hash(plugins[group], risks[group], params[group]), group);
+        }
+    }
+
+    private void growGroups() {
+        int capacity = counts.length * 2;
+        plugins = copy(plugins, capacity);
+        names = copy(names, capacity);
+        risks = copy(risks, capacity);
+        params = copy(params, capacity);
+        int[] newCounts = new int[capacity];
+        System.arraycopy(counts, 0, newCounts, 0, groups);
+        counts = newCounts;
+        String[][] newSamples = new String[capacity][];
+        System.arraycopy(sampleUrls, 0, newSamples, 0, groups);
+        sampleUrls = newSamples;
+    }
+
+    private String[] copy(String[] array, int capacity) {
+        String[] copy = new String[capacity];
+        System.arraycopy(array, 0, copy, 0, groups);
+        return copy;
+    }
+
+    private long hash(String plugin, String risk, String param) {
+        // FNV-1a over the three fields, separated so "ab"+"c" differs from "a"+"bc"
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, plugin);
+        hash = fnv(hash, risk);
+        return fnv(hash, param);
+    }
+
+    private long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return (hash ^ 0xffff) * 0x100000001b3L;
+    }
+
+    private String intern(String value) {
+        String interned = strings.get(value);
+        if (interned == null) {
+            strings.put(value, value);
+            interned = value;
+        }
+        return interned;
+    }
+
+    private String nonNull(String value) {
+        return (value == null) ? "" : value;
+    }
+
+    private void writeXml(Integer[] order) throws IOException {
+        try {
+            XMLStreamWriter xml = XML_FACTORY.createXMLStreamWriter(xmlOut, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("o");
+            xml.writeStartElement("groups");
+            xml.writeAttribute("class", "array");
+            for (Integer index : order) {
+                int group = index.intValue();
+                xml.writeStartElement("groups");
+                xml.writeAttribute("class", "object");
+                writeXmlField(xml, "alert", "string", names[group]);
+                writeXmlField(xml, "plugin", "string", plugins[group]);
+                writeXmlField(xml, "risk", "string", risks[group]);
+                writeXmlField(xml, "param", "string", params[group]);
+                writeXmlField(xml, "count", "number", String.valueOf(counts[group]));
+                xml.writeStartElement("urls");
+                xml.writeAttribute("class", "array");
+                for (String url : samples(group)) {
+                    writeXmlField(xml, "e", "string", url);
+                }
+                xml.writeEndElement();
+                xml.writeEndElement();
+            }
+            xml.writeEndElement();
+            String incomplete = (status == null) ? null : status.getIncompleteReason();
+            if (incomplete != null) {
+                writeXmlField(xml, "incomplete", "string", incomplete);
+            }
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            IOException ioe = new IOException(e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        } finally {
+            xmlOut.close();
+        }
+    }
+
+    private void writeXmlField(XMLStreamWriter xml, String name, String type, String value)
+            throws XMLStreamException {
+        xml.writeStartElement(name);
+        xml.writeAttribute("type", type);
+        xml.writeCharacters(value);
+        xml.writeEndElement();
+    }
+
+    private void writeJson(Integer[] order) throws IOException {
+        JsonGenerator json = JSON_FACTORY.createJsonGenerator(jsonOut, JsonEncoding.UTF8);
+        try {
+            json.writeStartObject();
+            json.writeArrayFieldStart("groups");
+            for (Integer index : order) {
+                int group = index.intValue();
+                json.writeStartObject();
+                json.writeStringField("alert", names[group]);
+                json.writeStringField("plugin", plugins[group]);
+                json.writeStringField("risk", risks[group]);
+                json.writeStringField("param", params[group]);
+                json.writeNumberField("count", counts[group]);
+                json.writeArrayFieldStart("urls");
+                for (String url : samples(group)) {
+                    json.writeString(url);
+                }
+                json.writeEndArray();
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            String incomplete = (status == null) ? null : status.getIncompleteReason();
+            if (incomplete != null) {
+                json.writeStringField("incomplete", incomplete);
+            }
+            json.writeEndObject();
+        } finally {
+            json.close();
+        }
+    }
+
+    private String[] samples(int group) {
+        String[] samples = sampleUrls[group];
+        if (samples == null) {
+            return new String[0];
+        }
+        int size = 0;
+        while (size < samples.length && samples[size] != null) {
+            size++;
+        }
+        String[] result = new String[size];
+        System.arraycopy(samples, 0, result, 0, size);
+        return result;
+    }
+}
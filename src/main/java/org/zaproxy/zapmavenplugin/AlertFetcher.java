@@ -0,0 +1,188 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Fetches the alerts of ZAP in pages of a fixed size, several pages at a time.
+ *
+ * The pages are handed to the report writer in the order of the alerts. Only a few pages per worker are held in
+ * memory at any time, the rest is still waiting in ZAP.
+ */
+public class AlertFetcher {
+
+    /** Pages fetched ahead of the page the writer is waiting for, per worker */
+    private static final int PAGES_AHEAD = 2;
+
+    private final ZapApi zapApi;
+
+    private final int pageSize;
+
+    private final int threads;
+
+    private final Log log;
+
+    /**
+     * @param zapApi the API to fetch the alerts from
+     * @param pageSize the number of alerts per request, 0 or less to fetch all alerts with one request
+     * @param threads the number of pages fetched in parallel
+     * @param log the log for progress messages
+     */
+    public AlertFetcher(ZapApi zapApi, int pageSize, int threads, Log log) {
+        this.zapApi = zapApi;
+        this.pageSize = pageSize;
+        this.threads = Math.max(1, threads);
+        this.log = log;
+    }
+
+    /**
+     * Fetch all alerts and write them in order
+     *
+     * @param baseUrl only alerts of URLs starting with this URL, empty for all alerts
+     * @param writer the writer to hand the alerts to
+     * @return the number of alerts written
+     * @throws IOException
+     */
+    public int fetch(String baseUrl, AlertWriter writer) throws IOException {
+        if (pageSize <= 0) {
+            return copy(new AlertReader(zapApi.open("json", "core", "view", "alerts", "baseurl", baseUrl)), writer);
+        }
+
+        int total = Integer.parseInt(zapApi.view("core", "numberOfAlerts", "baseurl", baseUrl));
+        log.info("Fetch " + total + " alerts in pages of " + pageSize + " with " + threads + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<List<Alert>>> pages = new LinkedList<Future<List<Alert>>>();
+        try {
+            int written = 0;
+            int start = 0;
+            while (start < total || !pages.isEmpty()) {
+                while (start < total && pages.size() < threads * PAGES_AHEAD) {
+                    pages.add(executor.submit(new PageRequest(baseUrl, start)));
+                    start += pageSize;
+                }
+                for (Alert alert : next(pages)) {
+                    writer.write(alert);
+                    written++;
+                }
+            }
+            return written;
+        } finally {
+            for (Future<List<Alert>> page : pages) {
+                page.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Alert> next(LinkedList<Future<List<Alert>>> pages) throws IOException {
+        try {
+            return pages.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching the alerts");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            IOException ioe = new IOException("Fetching the alerts failed");
+            ioe.initCause(e.getCause());
+            throw ioe;
+        }
+    }
+
+    private int copy(AlertReader reader, AlertWriter writer) throws IOException {
+        try {
+            int written = 0;
+            Alert alert;
+            while ((alert = reader.next()) != null) {
+                writer.write(alert);
+                written++;
+            }
+            return written;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Request for one page of alerts
+     */
+    private class PageRequest implements Callable<List<Alert>> {
+
+        private final String baseUrl;
+
+        private final int start;
+
+        PageRequest(String baseUrl, int start) {
+            this.baseUrl = baseUrl;
+            this.start = start;
+        }
+
+        public List<Alert> call() throws IOException {
+            return fetchPage(zapApi, baseUrl, start, pageSize);
+        }
+    }
+
+    /**
+     * Fetch one page of alerts
+     *
+     * @param zapApi the API to fetch the alerts from
+     * @param baseUrl only alerts of URLs starting with this URL, empty for all alerts
+     * @param start the number of alerts before the page
+     * @param count the most alerts in the page
+     * @return the alerts of the page
+     * @throws PagingIgnoredException if ZAP answered with more than count alerts
+     * @throws IOException
+     */
+    static List<Alert> fetchPage(ZapApi zapApi, String baseUrl, int start, int count) throws IOException {
+        List<Alert> page = new ArrayList<Alert>(count);
+        AlertReader reader = new AlertReader(zapApi.open("json", "core", "view", "alerts", "baseurl", baseUrl,
+                "start", String.valueOf(start), "count", String.valueOf(count)));
+        try {
+            Alert alert;
+            while ((alert = reader.next()) != null) {
+                if (page.size() == count) {
+                    throw new PagingIgnoredException();
+                }
+                page.add(alert);
+            }
+        } finally {
+            reader.close();
+        }
+        return page;
+    }
+
+    /**
+     * Thrown when a version of ZAP without start and count on the alerts view answers with all alerts
+     */
+    static class PagingIgnoredException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        PagingIgnoredException() {
+            super("ZAP ignores the start and count of the alerts view; set alertPageSize to 0 for this version of ZAP");
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Fetches the alerts of a ZAProxy while it is still scanning, so the reports are written along with the scan.
+ *
+ * ZAP adds new alerts at the end of its alerts view, so every round only asks for the alerts after the ones
+ * harvested so far, using the start offset of the view. The thread waits interval milliseconds between rounds;
+ * {@link #finish()} harvests the last alerts when the scan is done. A version of ZAP without start and count on
+ * the alerts view answers a round with all alerts; the harvester then stops and {@link #finish()} fetches the
+ * alerts after the ones harvested so far with one request. A round which fails with anything else than an
+ * {@link IOException} stops the harvest as well, {@link #finish()} then tries once more and reports the failure.
+ */
+public class AlertHarvester extends Thread {
+
+    private final ZapApi zapApi;
+
+    private final int pageSize;
+
+    private final long interval;
+
+    private final AlertWriter writer;
+
+    private final Log log;
+
+    /** Guards stopping, the thread waits on it between rounds */
+    private final Object lock = new Object();
+
+    /** Held for a whole round, guards harvested and pagingIgnored */
+    private final Object harvestLock = new Object();
+
+    private boolean stopping;
+
+    private int harvested;
+
+    private boolean pagingIgnored;
+
+    /**
+     * @param name the name of the ZAProxy, used in the messages
+     * @param zapApi the API of the ZAProxy
+     * @param pageSize the number of alerts fetched per request, 0 to fetch all new alerts with one request
+     * @param interval the time between rounds in milliseconds
+     * @param writer the writer to hand the alerts to, in the order ZAP raised them
+     * @param log the log
+     */
+    public AlertHarvester(String name, ZapApi zapApi, int pageSize, long interval, AlertWriter writer, Log log) {
+        super("Harvest alerts of " + name);
+        setDaemon(true);
+        this.zapApi = zapApi;
+        this.pageSize = pageSize;
+        this.interval = interval;
+        this.writer = writer;
+        this.log = log;
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (lock) {
+                if (stopping) {
+                    return;
+                }
+                try {
+                    lock.wait(interval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (stopping) {
+                    return;
+                }
+            }
+            try {
+                int fetched = harvest();
+                if (isPagingIgnored()) {
+                    return;
+                }
+                if (fetched > 0) {
+                    log.debug(getName() + ": " + fetched + " new alerts, " + harvested + " so far");
+                }
+            } catch (IOException e) {
+                // the next round continues after the last alert written
+                log.warn(getName() + " failed, trying again: " + e.toString());
+            } catch (RuntimeException e) {
+                log.error(getName() + " failed, the alerts are fetched after the scan instead: " + e.toString());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop harvesting in the background and fetch the alerts raised since the last round
+     *
+     * @return the number of alerts harvested in total
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public int finish() throws IOException, InterruptedException {
+        abort();
+        harvest();
+        if (isPagingIgnored()) {
+            fetchRest();
+        }
+        return getHarvested();
+    }
+
+    /**
+     * Stop harvesting without fetching the remaining alerts
+     *
+     * @throws InterruptedException
+     */
+    public void abort() throws InterruptedException {
+        synchronized (lock) {
+            stopping = true;
+            lock.notifyAll();
+        }
+        join();
+    }
+
+    /**
+     * @return the number of alerts harvested so far
+     */
+    public int getHarvested() {
+        synchronized (harvestLock) {
+            return harvested;
+        }
+    }
+
+    /**
+     * @return true if ZAP ignores the start and count of the alerts view and the harvest stopped
+     */
+    public boolean isPagingIgnored() {
+        synchronized (harvestLock) {
+            return pagingIgnored;
+        }
+    }
+
+    /**
+     * Fetch and write the alerts after the ones harvested so far. A page is checked before it is written, so a ZAP
+     * which ignores the start of the view does not write the alerts harvested before again.
+     *
+     * @return the number of alerts fetched
+     */
+    private int harvest() throws IOException {
+        synchronized (harvestLock) {
+            if (pagingIgnored) {
+                return 0;
+            }
+            int total = numberOfAlerts();
+            int fetched = 0;
+            while (harvested < total) {
+                int count = (pageSize > 0) ? Math.min(pageSize, total - harvested) : total - harvested;
+                List<Alert> page;
+                try {
+                    page = AlertFetcher.fetchPage(zapApi, "", harvested, count);
+                } catch (AlertFetcher.PagingIgnoredException e) {
+                    log.warn(getName() + ": ZAP ignores the start and count of the alerts view, the alerts are"
+                            + " fetched after the scan instead");
+                    pagingIgnored = true;
+                    break;
+                }
+                if (page.isEmpty()) {
+                    // ZAP counted alerts it does not list (yet)
+                    break;
+                }
+                for (Alert alert : page) {
+                    writer.write(alert);
+                    harvested++;
+                }
+                fetched += page.size();
+            }
+            return fetched;
+        }
+    }
+
+    /**
+     * @return the number of alerts ZAP has
+     * @throws IOException also if ZAP does not answer with a number
+     */
+    private int numberOfAlerts() throws IOException {
+        String value = zapApi.view("core", "numberOfAlerts", "baseurl", "");
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("ZAP answered numberOfAlerts with [" + value + "]");
+        }
+    }
+
+    /**
+     * Fetch all alerts with one request and write the ones after the alerts harvested so far
+     */
+    private void fetchRest() throws IOException {
+        synchronized (harvestLock) {
+            int skip = harvested;
+            AlertReader reader = new AlertReader(zapApi.open("json", "core", "view", "alerts", "baseurl", ""));
+            try {
+                Alert alert;
+                while ((alert = reader.next()) != null) {
+                    if (skip > 0) {
+                        skip--;
+                    } else {
+                        writer.write(alert);
+                        harvested++;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+}
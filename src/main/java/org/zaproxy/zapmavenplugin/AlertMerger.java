@@ -0,0 +1,165 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges reports whose alerts are sorted in {@link #ORDER} into one sorted report, reading one alert of each report
+ * at a time. Alerts with the same URL, plugin, parameter and evidence are written once. What the scans behind the
+ * reports left out is carried into the status of the merged report.
+ */
+public class AlertMerger {
+
+    /** The order of sorted reports: by URL, plugin, parameter and evidence */
+    public static final Comparator<Alert> ORDER = new Comparator<Alert>() {
+        public int compare(Alert a, Alert b) {
+            int order = compareField(a.getUrl(), b.getUrl());
+            if (order == 0) {
+                order = compareField(a.getPlugin(), b.getPlugin());
+            }
+            if (order == 0) {
+                order = compareField(a.getParam(), b.getParam());
+            }
+            if (order == 0) {
+                order = compareField(a.getEvidence(), b.getEvidence());
+            }
+            return order;
+        }
+
+        private int compareField(String a, String b) {
+            return ((a == null) ? "" : a).compareTo((b == null) ? "" : b);
+        }
+    };
+
+    private int merged;
+
+    private int duplicates;
+
+    /**
+     * Merge sorted reports, the reports are closed afterwards
+     *
+     * @param sources the sorted reports
+     * @param out the writer of the merged alerts, it is not closed
+     * @throws IOException if a report can not be read or is not sorted
+     */
+    public void merge(List<? extends AlertSource> sources, AlertWriter out) throws IOException {
+        merge(sources, out, null);
+    }
+
+    /**
+     * Merge sorted reports, the reports are closed afterwards
+     *
+     * @param sources the sorted reports
+     * @param out the writer of the merged alerts, it is not closed
+     * @param status marked incomplete for each report of an incomplete scan; null to ignore it
+     * @throws IOException if a report can not be read or is not sorted
+     */
+    public void merge(List<? extends AlertSource> sources, AlertWriter out, ScanStatus status) throws IOException {
+        try {
+            PriorityQueue<Head> heads = new PriorityQueue<Head>(Math.max(1, sources.size()));
+            for (int i = 0; i < sources.size(); i++) {
+                Head head = new Head(i, sources.get(i));
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+
+            Alert last = null;
+            while (!heads.isEmpty()) {
+                Head head = heads.poll();
+                if (last != null && ORDER.compare(last, head.alert) == 0) {
+                    duplicates++;
+                } else {
+                    out.write(head.alert);
+                    merged++;
+                    last = head.alert;
+                }
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+
+            if (status != null) {
+                for (AlertSource source : sources) {
+                    String incomplete = source.getIncompleteReason();
+                    if (incomplete != null) {
+                        status.incomplete(incomplete);
+                    }
+                }
+            }
+        } finally {
+            IOException failure = null;
+            for (AlertSource source : sources) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * @return the number of alerts written so far
+     */
+    public int getMerged() {
+        return merged;
+    }
+
+    /**
+     * @return the number of duplicates left out so far
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * The current alert of a report
+     */
+    private static class Head implements Comparable<Head> {
+        private final int index;
+        private final AlertSource source;
+        private Alert alert;
+
+        Head(int index, AlertSource source) {
+            this.index = index;
+            this.source = source;
+        }
+
+        /**
+         * @return false if the report has no more alerts
+         * @throws IOException if the alerts of the report are not sorted
+         */
+        boolean advance() throws IOException {
+            Alert next = source.next();
+            if (next != null && alert != null && ORDER.compare(alert, next) > 0) {
+                throw new IOException("The alerts of report " + (index + 1) + " are not sorted: " + next.getUrl()
+                        + " follows " + alert.getUrl());
+            }
+            alert = next;
+            return next != null;
+        }
+
+        public int compareTo(Head other) {
+            int order = ORDER.compare(alert, other.alert);
+            return (order != 0) ? order : index - other.index;
+        }
+    }
+}
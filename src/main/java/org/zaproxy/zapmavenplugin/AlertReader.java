@@ -0,0 +1,140 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Reads the alerts of a ZAP JSON response (<code>{"alerts":[{...},...]}</code>) one at a time,
+ * so only the current alert is held in memory. The "incomplete" note of a report written by {@link JsonAlertWriter}
+ * is read as well.
+ */
+public class AlertReader implements AlertSource {
+
+    private static final String ALERTS = "alerts";
+
+    private static final String INCOMPLETE = "incomplete";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonParser parser;
+
+    private boolean inAlerts;
+
+    private boolean done;
+
+    private String incomplete;
+
+    public AlertReader(InputStream in) throws IOException {
+        parser = JSON_FACTORY.createJsonParser(in);
+    }
+
+    /**
+     * Read the next alert
+     *
+     * @return the next alert or null if there are no more alerts
+     * @throws IOException if the response is not valid JSON
+     */
+    public Alert next() throws IOException {
+        if (done) {
+            return null;
+        }
+        if (!inAlerts && !seekAlerts()) {
+            done = true;
+            return null;
+        }
+
+        JsonToken token = parser.nextToken();
+        while (token != null && token != JsonToken.END_ARRAY) {
+            if (token == JsonToken.START_OBJECT) {
+                return readAlert();
+            }
+            // anything else than an object is not an alert
+            parser.skipChildren();
+            token = parser.nextToken();
+        }
+        done = true;
+        if (token != null) {
+            readFields();
+        }
+        return null;
+    }
+
+    /**
+     * Move the parser to the first element of the top level "alerts" array
+     *
+     * @return false if the response has no alerts array
+     */
+    private boolean seekAlerts() throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (ALERTS.equals(name) && token == JsonToken.START_ARRAY) {
+                inAlerts = true;
+                return true;
+            }
+            readField(name, token);
+        }
+        return false;
+    }
+
+    /**
+     * Read the top level fields after the alerts array
+     */
+    private void readFields() throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            readField(name, parser.nextToken());
+        }
+    }
+
+    private void readField(String name, JsonToken token) throws IOException {
+        if (INCOMPLETE.equals(name) && token == JsonToken.VALUE_STRING) {
+            incomplete = parser.getText();
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private Alert readAlert() throws IOException {
+        Alert alert = new Alert();
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                // nested values are not part of the flat alert format
+                parser.skipChildren();
+            } else if (token != JsonToken.VALUE_NULL) {
+                alert.put(name, parser.getText());
+            }
+        }
+        return alert;
+    }
+
+    public String getIncompleteReason() {
+        return incomplete;
+    }
+
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,35 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A report the alerts are read from, one alert at a time.
+ */
+public interface AlertSource extends Closeable {
+
+    /**
+     * Read the next alert
+     *
+     * @return the next alert or null if there are no more alerts
+     * @throws IOException if the report can not be read
+     */
+    Alert next() throws IOException;
+
+    /**
+     * @return what the scan behind the report left out, or null if it is complete; known once all alerts are read
+     */
+    String getIncompleteReason();
+}
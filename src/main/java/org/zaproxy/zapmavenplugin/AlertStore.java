@@ -0,0 +1,262 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads an alert store written by {@link AlertStoreWriter} through a memory mapping, so only the alerts asked for
+ * are read from the file.
+ *
+ * The store starts with a header of the magic number, the version, the number of alerts, fields and strings, the
+ * string id of what the scan left out (-1 for a complete scan) and the offsets of the string table, the columns and
+ * the indexes by risk, plugin and host. The names of the fields follow as string ids. The string table holds the
+ * field names and the values shared by many alerts once and the other values once per alert, as UTF-8. The columns
+ * hold the string id of one field for all alerts. Each index lists its keys with the numbers of the alerts of the
+ * key, in the order of the alerts. All numbers are big endian.
+ */
+public class AlertStore implements Closeable {
+
+    /** "ZAPS" */
+    static final int MAGIC = 0x5A415053;
+
+    static final int VERSION = 2;
+
+    static final int HEADER_SIZE = 6 * 4 + 5 * 8;
+
+    /** The largest store which can be mapped */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile file;
+
+    private final MappedByteBuffer buffer;
+
+    private final int count;
+
+    private final String[] fieldNames;
+
+    private final int stringCount;
+
+    private final int incomplete;
+
+    private final int stringsOffset;
+
+    private final int stringDataOffset;
+
+    private final int columnsOffset;
+
+    private final int riskOffset;
+
+    private final int pluginOffset;
+
+    private final int hostOffset;
+
+    /**
+     * @param store the store file
+     * @throws IOException if the file is not an alert store or larger than 2 GB
+     */
+    public AlertStore(File store) throws IOException {
+        file = new RandomAccessFile(store, "r");
+        try {
+            long length = file.length();
+            if (length > MAX_SIZE) {
+                throw new IOException("The alert store [" + store + "] is too large to be mapped: " + length);
+            }
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (length < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("[" + store + "] is not an alert store");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("The alert store [" + store + "] has the unknown version " + buffer.getInt(4));
+            }
+            count = buffer.getInt(8);
+            int fieldCount = buffer.getInt(12);
+            stringCount = buffer.getInt(16);
+            incomplete = buffer.getInt(20);
+            stringsOffset = (int) buffer.getLong(24);
+            columnsOffset = (int) buffer.getLong(32);
+            riskOffset = (int) buffer.getLong(40);
+            pluginOffset = (int) buffer.getLong(48);
+            hostOffset = (int) buffer.getLong(56);
+            stringDataOffset = stringsOffset + 4 * (stringCount + 1);
+            fieldNames = new String[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                fieldNames[i] = string(buffer.getInt(HEADER_SIZE + 4 * i));
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of alerts in the store
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return what the scan behind the store left out, or null if it is complete
+     */
+    public String getIncompleteReason() {
+        return (incomplete < 0) ? null : string(incomplete);
+    }
+
+    /**
+     * Read an alert
+     *
+     * @param index the number of the alert, from 0
+     * @return the alert
+     */
+    public Alert get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Alert " + index + " of " + count);
+        }
+        Alert alert = new Alert();
+        for (int field = 0; field < fieldNames.length; field++) {
+            int id = buffer.getInt(columnsOffset + 4 * (field * count + index));
+            if (id >= 0) {
+                alert.put(fieldNames[field], string(id));
+            }
+        }
+        return alert;
+    }
+
+    /**
+     * @param indexes numbers of alerts, as returned by the queries
+     * @return the alerts
+     */
+    public List<Alert> get(int[] indexes) {
+        List<Alert> alerts = new ArrayList<Alert>(indexes.length);
+        for (int index : indexes) {
+            alerts.add(get(index));
+        }
+        return alerts;
+    }
+
+    /**
+     * @param risk a risk, e.g. "High"
+     * @return the numbers of the alerts of the risk, in order
+     */
+    public int[] byRisk(String risk) {
+        return postings(riskOffset, risk);
+    }
+
+    /**
+     * @param plugin the id of a plugin, or the name of the alert for versions of ZAP without plugin ids
+     * @return the numbers of the alerts the plugin raised, in order
+     */
+    public int[] byPlugin(String plugin) {
+        return postings(pluginOffset, plugin);
+    }
+
+    /**
+     * @param host a host with its port if the URLs have one, e.g. "localhost:8080"
+     * @return the numbers of the alerts of URLs on the host, in order
+     */
+    public int[] byHost(String host) {
+        return postings(hostOffset, host.toLowerCase());
+    }
+
+    /**
+     * @return the risks of the alerts
+     */
+    public List<String> getRisks() {
+        return keys(riskOffset);
+    }
+
+    /**
+     * @return the plugins which raised the alerts
+     */
+    public List<String> getPlugins() {
+        return keys(pluginOffset);
+    }
+
+    /**
+     * @return the hosts of the URLs of the alerts
+     */
+    public List<String> getHosts() {
+        return keys(hostOffset);
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * @param url a URL
+     * @return the host and port of the URL in lower case, null if it has none
+     */
+    static String host(String url) {
+        if (url == null) {
+            return null;
+        }
+        int start = url.indexOf("://");
+        if (start < 0) {
+            return null;
+        }
+        start += 3;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        return url.substring(start, end).toLowerCase();
+    }
+
+    private int[] postings(int indexOffset, String key) {
+        int keys = buffer.getInt(indexOffset);
+        int postingsOffset = indexOffset + 4 + 12 * keys;
+        for (int i = 0; i < keys; i++) {
+            int entry = indexOffset + 4 + 12 * i;
+            if (string(buffer.getInt(entry)).equals(key)) {
+                int start = buffer.getInt(entry + 4);
+                int[] postings = new int[buffer.getInt(entry + 8)];
+                for (int j = 0; j < postings.length; j++) {
+                    postings[j] = buffer.getInt(postingsOffset + 4 * (start + j));
+                }
+                return postings;
+            }
+        }
+        return new int[0];
+    }
+
+    private List<String> keys(int indexOffset) {
+        int keys = buffer.getInt(indexOffset);
+        List<String> values = new ArrayList<String>(keys);
+        for (int i = 0; i < keys; i++) {
+            values.add(string(buffer.getInt(indexOffset + 4 + 12 * i)));
+        }
+        return values;
+    }
+
+    private String string(int id) {
+        int start = buffer.getInt(stringsOffset + 4 * id);
+        int end = buffer.getInt(stringsOffset + 4 * (id + 1));
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.position(stringDataOffset + start);
+        bytes.limit(stringDataOffset + end);
+        return UTF8.decode(bytes).toString();
+    }
+}
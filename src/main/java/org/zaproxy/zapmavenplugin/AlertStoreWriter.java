@@ -0,0 +1,405 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Writes the alerts into a binary store which {@link AlertStore} reads through a memory mapping, see there for the
+ * layout.
+ *
+ * The values of the fields shared by many alerts, like the risk or the description, and the field names are held
+ * once in memory as string ids. The values which differ from alert to alert, like the URL or the evidence, are
+ * spooled inline with the alerts to a temporary file, so memory does not grow with them. The spooled alerts are
+ * turned into columns when the store is closed, each inline value gets its own string id.
+ */
+public class AlertStoreWriter implements AlertWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Buffer of each column while the spooled alerts are turned into columns */
+    private static final int COLUMN_BUFFER_SIZE = 8 * 1024;
+
+    /** The fields whose values are shared by many alerts and are written once to the string table */
+    private static final Set<String> INTERNED_FIELDS = new HashSet<String>(Arrays.asList("risk", "reliability",
+            "confidence", "alert", "name", "pluginId", "solution", "reference", "description", "cweid", "wascid"));
+
+    private final String fileName;
+
+    private final ScanStatus status;
+
+    private final long maxSize;
+
+    private final File spool;
+
+    private final DataOutputStream rows;
+
+    private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+
+    private final List<String> strings = new ArrayList<String>();
+
+    /** The UTF-8 bytes of the interned strings */
+    private long stringBytes;
+
+    private int inlineStrings;
+
+    private long inlineBytes;
+
+    /** The string ids of the field names, in the order they first appeared */
+    private final List<Integer> fields = new ArrayList<Integer>();
+
+    private final Map<Integer, Integer> fieldIndexes = new HashMap<Integer, Integer>();
+
+    private final Map<Integer, IntList> riskIndex = new LinkedHashMap<Integer, IntList>();
+
+    private final Map<Integer, IntList> pluginIndex = new LinkedHashMap<Integer, IntList>();
+
+    private final Map<Integer, IntList> hostIndex = new LinkedHashMap<Integer, IntList>();
+
+    private int count;
+
+    /**
+     * @param fileName the name of the store file
+     * @throws IOException
+     */
+    public AlertStoreWriter(String fileName) throws IOException {
+        this(fileName, null);
+    }
+
+    /**
+     * @param fileName the name of the store file
+     * @param status the status of the scan, an incomplete scan is noted in the header; null for none
+     * @throws IOException
+     */
+    public AlertStoreWriter(String fileName, ScanStatus status) throws IOException {
+        this(fileName, status, AlertStore.MAX_SIZE);
+    }
+
+    /**
+     * @param fileName the name of the store file
+     * @param status the status of the scan; null for none
+     * @param maxSize the largest store to write
+     * @throws IOException
+     */
+    AlertStoreWriter(String fileName, ScanStatus status, long maxSize) throws IOException {
+        this.fileName = fileName;
+        this.status = status;
+        this.maxSize = maxSize;
+        this.spool = File.createTempFile("zap-alerts", ".spool");
+        this.rows = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spool), BUFFER_SIZE));
+    }
+
+    public void write(Alert alert) throws IOException {
+        Map<String, String> values = alert.getFields();
+        rows.writeInt(values.size());
+        for (Map.Entry<String, String> field : values.entrySet()) {
+            rows.writeInt(field(intern(field.getKey())));
+            if (INTERNED_FIELDS.contains(field.getKey())) {
+                rows.writeInt(intern(field.getValue()));
+            } else {
+                inline(field.getValue());
+            }
+        }
+        index(riskIndex, alert.getRisk());
+        index(pluginIndex, alert.getPlugin());
+        index(hostIndex, AlertStore.host(alert.getUrl()));
+        count++;
+    }
+
+    /**
+     * Write the store and delete the spooled alerts
+     *
+     * @throws IOException also if the store would be too large for {@link AlertStore} to map
+     */
+    public void close() throws IOException {
+        try {
+            rows.close();
+            String reason = (status == null) ? null : status.getIncompleteReason();
+            int incomplete = (reason == null) ? -1 : intern(reason);
+            int stringCount = strings.size() + inlineStrings;
+            long stringsOffset = AlertStore.HEADER_SIZE + 4L * fields.size();
+            long stringDataOffset = stringsOffset + 4L * (stringCount + 1);
+            long columnsOffset = stringDataOffset + stringBytes + inlineBytes;
+            long riskOffset = columnsOffset + 4L * fields.size() * count;
+            long pluginOffset = riskOffset + indexSize(riskIndex);
+            long hostOffset = pluginOffset + indexSize(pluginIndex);
+            long size = hostOffset + indexSize(hostIndex);
+            if (size > maxSize) {
+                throw new IOException("The alert store [" + fileName + "] of " + count + " alerts would be " + size
+                        + " bytes, more than the " + maxSize + " bytes an alert store can have");
+            }
+
+            FileOutputStream file = FileUtils.openOutputStream(new File(fileName));
+            try {
+                FileChannel channel = file.getChannel();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Channels.newOutputStream(channel), BUFFER_SIZE));
+                out.writeInt(AlertStore.MAGIC);
+                out.writeInt(AlertStore.VERSION);
+                out.writeInt(count);
+                out.writeInt(fields.size());
+                out.writeInt(stringCount);
+                out.writeInt(incomplete);
+                out.writeLong(stringsOffset);
+                out.writeLong(columnsOffset);
+                out.writeLong(riskOffset);
+                out.writeLong(pluginOffset);
+                out.writeLong(hostOffset);
+                for (Integer field : fields) {
+                    out.writeInt(field.intValue());
+                }
+                writeStrings(out, channel, stringDataOffset);
+                writeColumns(channel, stringsOffset + 4L * (strings.size() + 1), stringDataOffset + stringBytes,
+                        columnsOffset);
+                channel.position(riskOffset);
+                writeIndex(out, riskIndex);
+                writeIndex(out, pluginIndex);
+                writeIndex(out, hostIndex);
+                out.flush();
+            } finally {
+                file.close();
+            }
+        } finally {
+            spool.delete();
+        }
+    }
+
+    private int intern(String value) throws IOException {
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = Integer.valueOf(strings.size());
+            stringIds.put(value, id);
+            strings.add(value);
+            stringBytes += value.getBytes("UTF-8").length;
+            checkStringBytes();
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Spool a value without interning it: -1 - its length in UTF-8, then its bytes
+     */
+    private void inline(String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        rows.writeInt(-1 - bytes.length);
+        rows.write(bytes);
+        inlineStrings++;
+        inlineBytes += bytes.length;
+        checkStringBytes();
+    }
+
+    private void checkStringBytes() throws IOException {
+        if (stringBytes + inlineBytes > Integer.MAX_VALUE) {
+            throw new IOException("Too many strings for an alert store");
+        }
+    }
+
+    private int field(int nameId) {
+        Integer index = fieldIndexes.get(Integer.valueOf(nameId));
+        if (index == null) {
+            index = Integer.valueOf(fields.size());
+            fieldIndexes.put(Integer.valueOf(nameId), index);
+            fields.add(Integer.valueOf(nameId));
+        }
+        return index.intValue();
+    }
+
+    private void index(Map<Integer, IntList> index, String key) throws IOException {
+        if (key == null) {
+            return;
+        }
+        Integer id = Integer.valueOf(intern(key));
+        IntList postings = index.get(id);
+        if (postings == null) {
+            postings = new IntList();
+            index.put(id, postings);
+        }
+        postings.add(count);
+    }
+
+    private long indexSize(Map<Integer, IntList> index) {
+        long size = 4 + 12L * index.size();
+        for (IntList postings : index.values()) {
+            size += 4L * postings.size;
+        }
+        return size;
+    }
+
+    /**
+     * The offsets of the interned strings relative to the first string, with the end of the last one, then their
+     * UTF-8 bytes at the start of the string data; the offsets and bytes of the inline strings follow them
+     */
+    private void writeStrings(DataOutputStream out, FileChannel channel, long stringDataOffset) throws IOException {
+        int offset = 0;
+        out.writeInt(offset);
+        for (String value : strings) {
+            offset += value.getBytes("UTF-8").length;
+            out.writeInt(offset);
+        }
+        out.flush();
+        channel.position(stringDataOffset);
+        for (String value : strings) {
+            out.write(value.getBytes("UTF-8"));
+        }
+        out.flush();
+    }
+
+    /**
+     * One column of string ids per field, -1 where an alert has no such field; the spooled alerts are read once, the
+     * inline values get the string ids after the interned strings, and each column and the inline strings are
+     * buffered and written at their place in the store
+     */
+    private void writeColumns(FileChannel channel, long inlineOffsetsOffset, long inlineDataOffset,
+            long columnsOffset) throws IOException {
+        Region[] columns = new Region[fields.size()];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = new Region(channel, columnsOffset + 4L * count * field);
+        }
+        Region offsets = new Region(channel, inlineOffsetsOffset);
+        Region data = new Region(channel, inlineDataOffset);
+        int nextId = strings.size();
+        int end = (int) stringBytes;
+        int[] row = new int[fields.size()];
+        byte[] value = new byte[COLUMN_BUFFER_SIZE];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spool), BUFFER_SIZE));
+        try {
+            for (int i = 0; i < count; i++) {
+                Arrays.fill(row, -1);
+                int size = in.readInt();
+                for (int j = 0; j < size; j++) {
+                    int rowField = in.readInt();
+                    int id = in.readInt();
+                    if (id < 0) {
+                        int length = -1 - id;
+                        if (length > value.length) {
+                            value = new byte[length];
+                        }
+                        in.readFully(value, 0, length);
+                        data.put(value, length);
+                        end += length;
+                        offsets.putInt(end);
+                        id = nextId++;
+                    }
+                    row[rowField] = id;
+                }
+                for (int field = 0; field < columns.length; field++) {
+                    columns[field].putInt(row[field]);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        for (Region column : columns) {
+            column.flush();
+        }
+        offsets.flush();
+        data.flush();
+    }
+
+    /**
+     * The number of keys, then the string id, first posting and number of postings of each key, then the postings
+     */
+    private void writeIndex(DataOutputStream out, Map<Integer, IntList> index) throws IOException {
+        out.writeInt(index.size());
+        int start = 0;
+        for (Map.Entry<Integer, IntList> key : index.entrySet()) {
+            out.writeInt(key.getKey().intValue());
+            out.writeInt(start);
+            out.writeInt(key.getValue().size);
+            start += key.getValue().size;
+        }
+        for (IntList postings : index.values()) {
+            for (int i = 0; i < postings.size; i++) {
+                out.writeInt(postings.values[i]);
+            }
+        }
+    }
+
+    /**
+     * A buffered part of the store, written at its position in the file
+     */
+    private static class Region {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(COLUMN_BUFFER_SIZE);
+        private long position;
+
+        Region(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void put(byte[] bytes, int length) throws IOException {
+            int written = 0;
+            while (written < length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int chunk = Math.min(buffer.remaining(), length - written);
+                buffer.put(bytes, written, chunk);
+                written += chunk;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * A growing array of ints, without boxing every posting
+     */
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+    }
+}
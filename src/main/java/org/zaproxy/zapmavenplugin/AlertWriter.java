@@ -0,0 +1,32 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A report format the alerts are streamed into, one alert at a time.
+ *
+ * Closing the writer finishes the report and closes the underlying stream.
+ */
+public interface AlertWriter extends Closeable {
+
+    /**
+     * Append an alert to the report
+     *
+     * @param alert the alert to append
+     * @throws IOException
+     */
+    void write(Alert alert) throws IOException;
+}
@@ -0,0 +1,148 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the alerts to a report writer running on its own thread, so several report formats are written in parallel
+ * from the same alerts. A bounded queue keeps a slow writer from piling up alerts in memory.
+ */
+public class AsyncAlertWriter implements AlertWriter {
+
+    private static final int QUEUE_SIZE = 1024;
+
+    /** Milliseconds between two checks whether the writer still takes alerts from a full queue */
+    private static final long OFFER_TIMEOUT = 100;
+
+    /** Marks the end of the alerts */
+    private static final Alert END = new Alert();
+
+    private final BlockingQueue<Alert> queue = new ArrayBlockingQueue<Alert>(QUEUE_SIZE);
+
+    private final AlertWriter writer;
+
+    private final Thread worker;
+
+    private volatile IOException failure;
+
+    /** Set once the writer takes no more alerts */
+    private volatile boolean stopped;
+
+    /**
+     * Start the thread of a writer
+     *
+     * @param name the name of the report, for the thread name
+     * @param writer the report writer
+     */
+    public AsyncAlertWriter(String name, AlertWriter writer) {
+        this.writer = writer;
+        this.worker = new Thread("zap-report-" + name) {
+            public void run() {
+                drain();
+            }
+        };
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void write(Alert alert) throws IOException {
+        checkFailure();
+        put(alert);
+    }
+
+    /**
+     * Wait until the writer wrote all alerts and closed the report
+     *
+     * @throws IOException the failure of the writer
+     */
+    public void close() throws IOException {
+        put(END);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            worker.interrupt();
+            throw new IOException("Interrupted while writing the report");
+        }
+        checkFailure();
+    }
+
+    private void put(Alert alert) throws IOException {
+        try {
+            while (!queue.offer(alert, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                if (stopped) {
+                    checkFailure();
+                    throw new IOException("The writer of the report stopped");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            worker.interrupt();
+            throw new IOException("Interrupted while writing the report");
+        }
+    }
+
+    private void drain() {
+        boolean ended = false;
+        try {
+            Alert alert;
+            while ((alert = queue.take()) != END) {
+                if (failure == null) {
+                    write(writer, alert);
+                }
+            }
+            ended = true;
+        } catch (InterruptedException e) {
+            fail(new IOException("Interrupted while writing the report"));
+        } finally {
+            if (!ended) {
+                fail(new IOException("The writer of the report stopped"));
+            }
+            stopped = true;
+            try {
+                writer.close();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void write(AlertWriter writer, Alert alert) {
+        try {
+            writer.write(alert);
+        } catch (IOException e) {
+            // keep taking alerts, so the producer does not block on a full queue
+            fail(e);
+        } catch (RuntimeException e) {
+            IOException ioe = new IOException(e.toString());
+            ioe.initCause(e);
+            fail(ioe);
+        }
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
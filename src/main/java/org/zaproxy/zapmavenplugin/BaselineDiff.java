@@ -0,0 +1,289 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Compares the alerts with the alerts of a report of an earlier build, and writes the new alerts and the alerts which
+ * are no longer reported as JSON: <code>{"new":[...],"resolved":[...],"counts":{...}}</code>. The alerts of an
+ * incomplete scan may lack some which are not resolved, the diff report then notes what the scan left out.
+ *
+ * Of the earlier report only a sorted array of 64 bit hashes of plugin, URL, parameter and evidence and a bit per
+ * hash are held in memory, of the new alerts only an open addressing set of their hashes. The new alerts are written
+ * as they come, once per hash like the resolved alerts. The earlier report is read once: its alerts are spooled to a
+ * temporary file while their hashes are taken, and the ones not seen again are written from there when the diff is
+ * closed.
+ */
+public class BaselineDiff implements AlertWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The alerts of the earlier report, candidates for the resolved alerts */
+    private final File spool;
+
+    /** The distinct fingerprints of the baseline alerts, sorted */
+    private final long[] fingerprints;
+
+    /** The baseline fingerprints seen again */
+    private final BitSet seen;
+
+    /** The fingerprints of the new alerts written so far */
+    private final LongSet written = new LongSet();
+
+    private final JsonGenerator json;
+
+    private final ScanStatus status;
+
+    private int added;
+
+    private int resolved;
+
+    /**
+     * @param baseline an XML or JSON report of an earlier build, gzipped if its name ends with ".gz"
+     * @param out the stream for the diff report
+     * @throws IOException if the earlier report can not be read
+     */
+    public BaselineDiff(File baseline, OutputStream out) throws IOException {
+        this(baseline, out, null);
+    }
+
+    /**
+     * @param baseline an XML or JSON report of an earlier build, gzipped if its name ends with ".gz"
+     * @param out the stream for the diff report
+     * @param status the status of the scan, an incomplete scan is noted after the resolved alerts; null for none
+     * @throws IOException if the earlier report can not be read
+     */
+    public BaselineDiff(File baseline, OutputStream out, ScanStatus status) throws IOException {
+        this.status = status;
+        spool = File.createTempFile("zap-baseline", ".json");
+        spool.deleteOnExit();
+        try {
+            this.fingerprints = load(baseline, spool);
+            json = JSON_FACTORY.createJsonGenerator(out, JsonEncoding.UTF8);
+        } catch (IOException e) {
+            spool.delete();
+            throw e;
+        }
+        this.seen = new BitSet(fingerprints.length);
+        json.writeStartObject();
+        json.writeArrayFieldStart("new");
+    }
+
+    public synchronized void write(Alert alert) throws IOException {
+        long fingerprint = fingerprint(alert);
+        int index = Arrays.binarySearch(fingerprints, fingerprint);
+        if (index >= 0) {
+            seen.set(index);
+        } else if (written.add(fingerprint)) {
+            added++;
+            writeAlert(alert);
+        }
+    }
+
+    /**
+     * Write the alerts of the earlier report which were not seen again and finish the diff report
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        try {
+            json.writeEndArray();
+            json.writeArrayFieldStart("resolved");
+            AlertSource alerts = new AlertReader(new BufferedInputStream(new FileInputStream(spool), BUFFER_SIZE));
+            try {
+                Alert alert;
+                while ((alert = alerts.next()) != null) {
+                    int index = Arrays.binarySearch(fingerprints, fingerprint(alert));
+                    if (index >= 0 && !seen.get(index)) {
+                        // set it, so duplicates in the earlier report are written once
+                        seen.set(index);
+                        resolved++;
+                        writeAlert(alert);
+                    }
+                }
+            } finally {
+                alerts.close();
+            }
+            json.writeEndArray();
+            String incomplete = (status == null) ? null : status.getIncompleteReason();
+            if (incomplete != null) {
+                json.writeStringField("incomplete", incomplete);
+            }
+            json.writeObjectFieldStart("counts");
+            json.writeNumberField("baseline", fingerprints.length);
+            json.writeNumberField("new", added);
+            json.writeNumberField("resolved", resolved);
+            json.writeEndObject();
+            json.writeEndObject();
+        } finally {
+            json.close();
+            spool.delete();
+        }
+    }
+
+    /**
+     * @return the number of alerts not in the earlier report so far
+     */
+    public synchronized int getAdded() {
+        return added;
+    }
+
+    /**
+     * @return the number of alerts of the earlier report no longer reported, known when the diff is closed
+     */
+    public synchronized int getResolved() {
+        return resolved;
+    }
+
+    private void writeAlert(Alert alert) throws IOException {
+        json.writeStartObject();
+        for (Map.Entry<String, String> field : alert.getFields().entrySet()) {
+            json.writeStringField(field.getKey(), field.getValue());
+        }
+        json.writeEndObject();
+    }
+
+    /**
+     * Read the fingerprints of the alerts of a report and spool the alerts
+     *
+     * @param report the report
+     * @param spool the file the alerts are spooled to
+     * @return the distinct fingerprints, sorted
+     * @throws IOException
+     */
+    private static long[] load(File report, File spool) throws IOException {
+        long[] hashes = new long[1024];
+        int size = 0;
+        AlertSource alerts = ReportFiles.openAlerts(report);
+        try {
+            JsonAlertWriter out = new JsonAlertWriter(new BufferedOutputStream(new FileOutputStream(spool),
+                    BUFFER_SIZE));
+            try {
+                Alert alert;
+                while ((alert = alerts.next()) != null) {
+                    if (size == hashes.length) {
+                        long[] grown = new long[size * 2];
+                        System.arraycopy(hashes, 0, grown, 0, size);
+                        hashes = grown;
+                    }
+                    hashes[size++] = fingerprint(alert);
+                    out.write(alert);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            alerts.close();
+        }
+
+        Arrays.sort(hashes, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || hashes[i] != hashes[distinct - 1]) {
+                hashes[distinct++] = hashes[i];
+            }
+        }
+        long[] fingerprints = new long[distinct];
+        System.arraycopy(hashes, 0, fingerprints, 0, distinct);
+        return fingerprints;
+    }
+
+    /**
+     * @param alert an alert
+     * @return the hash of plugin, URL, parameter and evidence of the alert
+     */
+    static long fingerprint(Alert alert) {
+        // FNV-1a over the fields, separated so "ab"+"c" differs from "a"+"bc"
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, alert.getPlugin());
+        hash = fnv(hash, alert.getUrl());
+        hash = fnv(hash, alert.getParam());
+        return fnv(hash, alert.getEvidence());
+    }
+
+    private static long fnv(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return (hash ^ 0xffff) * 0x100000001b3L;
+    }
+
+    /**
+     * An open addressing set of 64 bit hashes, without a boxed value and an entry per hash
+     */
+    private static class LongSet {
+        private long[] slots = new long[1024];
+        private boolean hasZero;
+        private int size;
+
+        /**
+         * @return false if the hash was in the set already
+         */
+        boolean add(long hash) {
+            if (hash == 0) {
+                boolean added = !hasZero;
+                hasZero = true;
+                return added;
+            }
+            if ((size + 1) * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+            if (!insert(slots, hash)) {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        private void rehash(int capacity) {
+            long[] grown = new long[capacity];
+            for (long hash : slots) {
+                if (hash != 0) {
+                    insert(grown, hash);
+                }
+            }
+            slots = grown;
+        }
+
+        private static boolean insert(long[] slots, long hash) {
+            int mask = slots.length - 1;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (slots[slot] != 0) {
+                if (slots[slot] == hash) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = hash;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands every alert to several report writers.
+ */
+public class CompositeAlertWriter implements AlertWriter {
+
+    private final List<AlertWriter> writers = new ArrayList<AlertWriter>();
+
+    /**
+     * Add a report writer, it is closed together with this writer
+     *
+     * @param writer the writer to add
+     */
+    public void add(AlertWriter writer) {
+        writers.add(writer);
+    }
+
+    public void write(Alert alert) throws IOException {
+        for (AlertWriter writer : writers) {
+            writer.write(alert);
+        }
+    }
+
+    /**
+     * Close all writers, even if one of them fails
+     *
+     * @throws IOException the first failure
+     */
+    public void close() throws IOException {
+        IOException failure = null;
+        for (AlertWriter writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
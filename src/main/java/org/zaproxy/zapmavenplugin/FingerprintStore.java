@@ -0,0 +1,385 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Remembers a hash of the response of every scanned URL and the alerts found on it, between builds.
+ *
+ * URLs whose response did not change since the last build need no active scan, their alerts are taken over from the
+ * store instead. An alert belongs to the scanned URL it was raised on, or to the scanned page of its URL without the
+ * fragment and query, as active scan alerts are raised on attack URLs like "page?q=&lt;payload&gt;". The alerts of
+ * this build are spooled to a temporary file until the store is saved, only their keys are held in memory.
+ */
+public class FingerprintStore {
+
+    private static final String STORE_FILE = "fingerprints.json";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final File file;
+
+    /** Fingerprints and alerts of the last build */
+    private final Map<String, Entry> previous = new HashMap<String, Entry>();
+
+    /** Fingerprints of this build */
+    private final Map<String, String> fingerprints = new HashMap<String, String>();
+
+    /** URLs which need no active scan in this build */
+    private final Set<String> unchanged = new HashSet<String>();
+
+    /** Keys of the alerts ZAP reported in this build */
+    private final Set<String> reported = new HashSet<String>();
+
+    /** The alerts ZAP reported in this build, null until the first one */
+    private File spool;
+
+    private JsonAlertWriter spoolWriter;
+
+    /**
+     * Load the store of the last build, if there is one
+     *
+     * @param directory the directory of the store
+     * @throws IOException
+     */
+    public FingerprintStore(File directory) throws IOException {
+        this.file = new File(directory, STORE_FILE);
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * Hash a response
+     *
+     * @param response the response body, closed when done
+     * @return the hex encoded SHA-1 of the response
+     * @throws IOException
+     */
+    public static String fingerprint(InputStream response) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = response.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Check the fingerprint of a URL against the last build, without recording it
+     *
+     * @param url the url
+     * @param fingerprint the hash of its response
+     * @return true if the URL is new or its response changed since the last build
+     */
+    public synchronized boolean isChanged(String url, String fingerprint) {
+        Entry entry = previous.get(url);
+        return (entry == null) || !entry.fingerprint.equals(fingerprint);
+    }
+
+    /**
+     * Record the fingerprint of a URL for this build. Changed URLs are only recorded once they are scanned, so that a
+     * URL whose scan was skipped or stopped is scanned again in the next build.
+     *
+     * @param url the url
+     * @param fingerprint the hash of its response
+     * @return true if the URL is new or its response changed since the last build
+     */
+    public synchronized boolean update(String url, String fingerprint) {
+        fingerprints.put(url, fingerprint);
+        boolean changed = isChanged(url, fingerprint);
+        if (!changed) {
+            unchanged.add(url);
+        }
+        return changed;
+    }
+
+    /**
+     * Record the alerts ZAP reports in this build, to be stored for the next build
+     *
+     * @param writer the writer of the report
+     * @return a writer which records the alerts and hands them on to the report writer, closing it does not close
+     *         the report writer
+     */
+    public AlertWriter recording(final AlertWriter writer) {
+        return new AlertWriter() {
+            public void write(Alert alert) throws IOException {
+                record(alert);
+                writer.write(alert);
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Write the alerts of the last build for the URLs which were not scanned again,
+     * unless ZAP reported them again
+     *
+     * @param baseUrl only alerts of URLs starting with this URL
+     * @param writer the writer of the report
+     * @return the number of alerts taken over
+     * @throws IOException
+     */
+    public int writeCachedAlerts(String baseUrl, AlertWriter writer) throws IOException {
+        List<Alert> cached = new ArrayList<Alert>();
+        synchronized (this) {
+            for (String url : unchanged) {
+                if (url.startsWith(baseUrl)) {
+                    cached.addAll(cachedAlerts(url));
+                }
+            }
+        }
+        for (Alert alert : cached) {
+            writer.write(alert);
+        }
+        return cached.size();
+    }
+
+    /**
+     * Save the fingerprints of this build with the alerts reported or taken over for them
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        JsonGenerator json = JSON_FACTORY.createJsonGenerator(
+                new BufferedOutputStream(FileUtils.openOutputStream(file)), JsonEncoding.UTF8);
+        try {
+            json.writeStartObject();
+            json.writeArrayFieldStart("urls");
+            for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+                json.writeStartObject();
+                json.writeStringField("url", fingerprint.getKey());
+                json.writeStringField("fingerprint", fingerprint.getValue());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeArrayFieldStart("alerts");
+            writeReportedAlerts(json);
+            for (String url : unchanged) {
+                for (Alert alert : cachedAlerts(url)) {
+                    writeAlert(json, url, alert);
+                }
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        } finally {
+            json.close();
+            deleteSpool();
+        }
+    }
+
+    private synchronized void record(Alert alert) throws IOException {
+        if (alert.getUrl() == null || !reported.add(key(alert))) {
+            return;
+        }
+        if (spoolWriter == null) {
+            spool = File.createTempFile("zap-fingerprint-alerts", ".json");
+            spool.deleteOnExit();
+            spoolWriter = new JsonAlertWriter(new BufferedOutputStream(new FileOutputStream(spool), 64 * 1024));
+        }
+        spoolWriter.write(alert);
+    }
+
+    /**
+     * Write the spooled alerts of this build which belong to a scanned page
+     */
+    private void writeReportedAlerts(JsonGenerator json) throws IOException {
+        if (spoolWriter == null) {
+            return;
+        }
+        spoolWriter.close();
+        spoolWriter = null;
+        AlertReader reader = new AlertReader(new BufferedInputStream(new FileInputStream(spool), 64 * 1024));
+        try {
+            Alert alert;
+            while ((alert = reader.next()) != null) {
+                String page = page(alert.getUrl());
+                if (page != null) {
+                    writeAlert(json, page, alert);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void deleteSpool() throws IOException {
+        if (spoolWriter != null) {
+            spoolWriter.close();
+            spoolWriter = null;
+        }
+        if (spool != null) {
+            spool.delete();
+            spool = null;
+        }
+    }
+
+    /**
+     * @return the scanned URL an alert URL belongs to: the URL itself, or the URL without fragment or without query;
+     *         null if none of them was scanned
+     */
+    private String page(String url) {
+        if (fingerprints.containsKey(url)) {
+            return url;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0) {
+            url = url.substring(0, fragment);
+            if (fingerprints.containsKey(url)) {
+                return url;
+            }
+        }
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            url = url.substring(0, query);
+            if (fingerprints.containsKey(url)) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    private List<Alert> cachedAlerts(String url) {
+        List<Alert> cached = new ArrayList<Alert>();
+        for (Alert alert : previous.get(url).alerts) {
+            if (!reported.contains(key(alert))) {
+                cached.add(alert);
+            }
+        }
+        return cached;
+    }
+
+    private String key(Alert alert) {
+        return alert.getUrl() + "|" + alert.getPlugin() + "|" + alert.getParam() + "|" + alert.getEvidence();
+    }
+
+    /**
+     * Write an alert with the scanned URL it belongs to
+     */
+    private void writeAlert(JsonGenerator json, String url, Alert alert) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("url", url);
+        json.writeObjectFieldStart("alert");
+        for (Map.Entry<String, String> field : alert.getFields().entrySet()) {
+            json.writeStringField(field.getKey(), field.getValue());
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    private void load() throws IOException {
+        InputStream in = new BufferedInputStream(FileUtils.openInputStream(file));
+        JsonParser parser = JSON_FACTORY.createJsonParser(in);
+        try {
+            // {"urls":[{"url":"...","fingerprint":"..."},...],"alerts":[{"url":"...","alert":{...}},...]}, the
+            // stores of earlier versions have the alerts in the "urls"
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Entry entry = readEntry(parser);
+                    if ("alerts".equals(name)) {
+                        Entry page = (entry.url == null) ? null : previous.get(entry.url);
+                        if (page != null) {
+                            page.alerts.addAll(entry.alerts);
+                        }
+                    } else if (entry.url != null && entry.fingerprint != null) {
+                        previous.put(entry.url, entry);
+                    }
+                }
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    private Entry readEntry(JsonParser parser) throws IOException {
+        Entry entry = new Entry();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("url".equals(name)) {
+                entry.url = parser.getText();
+            } else if ("fingerprint".equals(name)) {
+                entry.fingerprint = parser.getText();
+            } else if ("alerts".equals(name) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    entry.alerts.add(readAlert(parser));
+                }
+            } else if ("alert".equals(name) && token == JsonToken.START_OBJECT) {
+                entry.alerts.add(readAlert(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return entry;
+    }
+
+    private Alert readAlert(JsonParser parser) throws IOException {
+        Alert alert = new Alert();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            alert.put(field, parser.getText());
+        }
+        return alert;
+    }
+
+    /**
+     * The fingerprint and alerts of one URL
+     */
+    private static class Entry {
+        private String url;
+        private String fingerprint;
+        private final List<Alert> alerts = new ArrayList<Alert>();
+    }
+}
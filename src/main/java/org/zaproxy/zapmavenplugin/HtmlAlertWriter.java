@@ -0,0 +1,118 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the alerts as an HTML page, one table per alert, followed by the number of alerts per risk.
+ */
+public class HtmlAlertWriter implements AlertWriter {
+
+    private final Writer out;
+
+    private final Map<String, Integer> risks = new LinkedHashMap<String, Integer>();
+
+    private final ScanStatus status;
+
+    private int count;
+
+    public HtmlAlertWriter(OutputStream out) throws IOException {
+        this(out, null);
+    }
+
+    /**
+     * @param out the stream to write to
+     * @param status the status of the scan, an incomplete scan is noted above the summary; null for none
+     * @throws IOException
+     */
+    public HtmlAlertWriter(OutputStream out, ScanStatus status) throws IOException {
+        this.status = status;
+        this.out = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        this.out.write("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\"><title>ZAP Scanning Report</title></head>\n"
+                + "<body><h1>ZAP Scanning Report</h1>\n");
+    }
+
+    public void write(Alert alert) throws IOException {
+        count++;
+        String risk = (alert.getRisk() == null) ? "" : alert.getRisk();
+        Integer riskCount = risks.get(risk);
+        risks.put(risk, Integer.valueOf((riskCount == null) ? 1 : riskCount.intValue() + 1));
+
+        out.write("<h3>");
+        escape(alert.get("alert"));
+        out.write("</h3>\n<table border=\"1\">\n");
+        for (Map.Entry<String, String> field : alert.getFields().entrySet()) {
+            out.write("<tr><td>");
+            escape(field.getKey());
+            out.write("</td><td>");
+            escape(field.getValue());
+            out.write("</td></tr>\n");
+        }
+        out.write("</table>\n");
+    }
+
+    public void close() throws IOException {
+        try {
+            String incomplete = (status == null) ? null : status.getIncompleteReason();
+            if (incomplete != null) {
+                out.write("<h2>Incomplete Scan</h2>\n<p>");
+                escape(incomplete);
+                out.write("</p>\n");
+            }
+            out.write("<h2>Summary of Alerts</h2>\n<table border=\"1\">\n<tr><th>Risk</th><th>Number of Alerts</th></tr>\n");
+            for (Map.Entry<String, Integer> risk : risks.entrySet()) {
+                out.write("<tr><td>");
+                escape(risk.getKey());
+                out.write("</td><td>" + risk.getValue() + "</td></tr>\n");
+            }
+            out.write("<tr><td>Total</td><td>" + count + "</td></tr>\n</table>\n</body></html>\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private void escape(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '<':
+                out.write("&lt;");
+                break;
+            case '>':
+                out.write("&gt;");
+                break;
+            case '&':
+                out.write("&amp;");
+                break;
+            case '"':
+                out.write("&quot;");
+                break;
+            case '\n':
+                out.write("<br>");
+                break;
+            default:
+                out.write(c);
+            }
+        }
+    }
+}
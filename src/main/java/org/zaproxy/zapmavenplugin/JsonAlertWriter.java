@@ -0,0 +1,67 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Writes the alerts in the same JSON layout as the ZAP API, without building the document in memory.
+ */
+public class JsonAlertWriter implements AlertWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonGenerator json;
+
+    private final ScanStatus status;
+
+    public JsonAlertWriter(OutputStream out) throws IOException {
+        this(out, null);
+    }
+
+    /**
+     * @param out the stream to write to
+     * @param status the status of the scan, an incomplete scan is noted after the alerts; null for none
+     * @throws IOException
+     */
+    public JsonAlertWriter(OutputStream out, ScanStatus status) throws IOException {
+        this.status = status;
+        json = JSON_FACTORY.createJsonGenerator(out, JsonEncoding.UTF8);
+        json.writeStartObject();
+        json.writeArrayFieldStart("alerts");
+    }
+
+    public void write(Alert alert) throws IOException {
+        json.writeStartObject();
+        for (Map.Entry<String, String> field : alert.getFields().entrySet()) {
+            json.writeStringField(field.getKey(), field.getValue());
+        }
+        json.writeEndObject();
+    }
+
+    public void close() throws IOException {
+        json.writeEndArray();
+        String incomplete = (status == null) ? null : status.getIncompleteReason();
+        if (incomplete != null) {
+            json.writeStringField("incomplete", incomplete);
+        }
+        json.writeEndObject();
+        json.close();
+    }
+}
@@ -0,0 +1,189 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Goal which merges the sorted reports of the shards of a scan, see shardIndex and shardCount of process-zap, into
+ * one report without duplicates.
+ *
+ * @goal merge-zap-reports
+ * @phase verify
+ */
+public class MergeZAP extends AbstractMojo {
+
+    private static final Pattern SHARD_REPORT = Pattern.compile(".*-shard(\\d+)\\.json(\\.gz)?");
+
+    /**
+     * Location of the shard reports and of the merged report
+     *
+     * @parameter default-value="${project.build.directory}/zap-reports"
+     */
+    private String reportsDirectory;
+
+    /**
+     * The shard reports to merge. By default the "-shard&lt;n&gt;.json" reports in the reportsDirectory are merged,
+     * exactly one for each shard.
+     *
+     * @parameter
+     */
+    private List<String> shardReports;
+
+    /**
+     * The number of shards the scan was split into, see shardCount of process-zap. The merge fails if the
+     * reportsDirectory does not hold exactly one report of each of them, e.g. when reports of an earlier build were
+     * left there. 0 to take the number of shards from the highest shard report found.
+     *
+     * @parameter expression="${zap.shardCount}" default-value="0"
+     */
+    private int shardCount;
+
+    /**
+     * File name of the merged report, without extension
+     *
+     * @parameter default-value="ZAP-merged"
+     */
+    private String mergedReportName;
+
+    /**
+     * Set the output format type, in addition to the XML and HTML report. Must be one of "none" or "json".
+     *
+     * @parameter default-value="none"
+     */
+    private String format;
+
+    /**
+     * Write the merged report gzip compressed, with ".gz" appended to its names
+     *
+     * @parameter default-value="false"
+     */
+    private boolean compressReports;
+
+    /**
+     * Set the plugin to skip its execution.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean skip;
+
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping zap exection");
+            return;
+        }
+        List<File> reports = shardReports();
+        if (reports.isEmpty()) {
+            throw new MojoExecutionException("No shard reports to merge in [" + reportsDirectory + "]");
+        }
+
+        long start = System.currentTimeMillis();
+        String fileName = FilenameUtils.concat(reportsDirectory, mergedReportName);
+        List<AlertSource> sources = new ArrayList<AlertSource>();
+        ScanStatus status = new ScanStatus();
+        CompositeAlertWriter writers = new CompositeAlertWriter();
+        try {
+            for (File report : reports) {
+                sources.add(ReportFiles.openAlerts(report));
+            }
+            writers.add(new AsyncAlertWriter("xml",
+                    new XmlAlertWriter(ReportFiles.open(fileName + ".xml", compressReports), status)));
+            writers.add(new AsyncAlertWriter("html",
+                    new HtmlAlertWriter(ReportFiles.open(fileName + ".html", compressReports), status)));
+            if ("json".equals(format)) {
+                writers.add(new AsyncAlertWriter("json",
+                        new JsonAlertWriter(ReportFiles.open(fileName + ".json", compressReports), status)));
+            }
+
+            AlertMerger merger = new AlertMerger();
+            merger.merge(sources, writers, status);
+            writers.close();
+            getLog().info("Merged " + merger.getMerged() + " alerts of " + reports.size() + " shard reports into ["
+                    + fileName + "], " + merger.getDuplicates() + " duplicates left out, in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            if (!status.isComplete()) {
+                getLog().warn("The merged report [" + fileName + "] is incomplete: " + status.getIncompleteReason());
+            }
+        } catch (IOException e) {
+            for (AlertSource source : sources) {
+                IOUtils.closeQuietly(source);
+            }
+            IOUtils.closeQuietly(writers);
+            throw new MojoExecutionException("Unable to merge the shard reports " + reports, e);
+        }
+    }
+
+    /**
+     * @return the shard reports to merge, by shard if they are found in the reportsDirectory
+     * @throws MojoExecutionException if the reportsDirectory holds no report or more than one report of a shard
+     */
+    private List<File> shardReports() throws MojoExecutionException {
+        List<File> reports = new ArrayList<File>();
+        if (shardReports != null && !shardReports.isEmpty()) {
+            for (String report : shardReports) {
+                reports.add(new File(report));
+            }
+            return reports;
+        }
+        TreeMap<Integer, File> byShard = new TreeMap<Integer, File>();
+        File[] files = new File(reportsDirectory).listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                Matcher matcher = SHARD_REPORT.matcher(file.getName());
+                if (file.isFile() && matcher.matches()) {
+                    Integer shard = Integer.valueOf(matcher.group(1));
+                    File other = byShard.put(shard, file);
+                    if (other != null) {
+                        throw new MojoExecutionException("Two reports of shard " + shard + " in [" + reportsDirectory
+                                + "]: " + other.getName() + " and " + file.getName()
+                                + ", remove the reports of earlier builds");
+                    }
+                }
+            }
+        }
+        if (byShard.isEmpty()) {
+            return reports;
+        }
+        int shards = (shardCount > 0) ? shardCount : byShard.lastKey().intValue() + 1;
+        for (Map.Entry<Integer, File> report : byShard.entrySet()) {
+            if (report.getKey().intValue() >= shards) {
+                throw new MojoExecutionException("The report " + report.getValue().getName() + " in ["
+                        + reportsDirectory + "] is of shard " + report.getKey() + ", but the scan has " + shards
+                        + " shards, remove the reports of earlier builds");
+            }
+        }
+        for (int shard = 0; shard < shards; shard++) {
+            File report = byShard.get(Integer.valueOf(shard));
+            if (report == null) {
+                throw new MojoExecutionException("No report of shard " + shard + " of " + shards + " in ["
+                        + reportsDirectory + "]");
+            }
+            reports.add(report);
+        }
+        return reports;
+    }
+}
@@ -12,24 +12,28 @@ package org.zaproxy.zapmavenplugin;
  * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
  * governing permissions and limitations under the License.
  */
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.net.URL;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
-import net.sf.json.JSON;
-import net.sf.json.JSONSerializer;
-import net.sf.json.xml.XMLSerializer;
-
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -49,8 +53,17 @@ public class ProcessZAP extends AbstractMojo {
 
     private static final String JSON_FORMAT = "json";
 
-    private ClientApi zapClientAPI;
-    private Proxy proxy;
+    /** Alerts held in memory to sort the shard report, the others are sorted in runs on disk */
+    private static final int SHARD_SORT_BUFFER = 10000;
+
+    private List<ZapInstance> instances;
+    private FingerprintStore fingerprintStore;
+    private ScanMetrics metrics;
+    private List<File> reportFiles;
+    private ScanBudget budget;
+    private ScanStatus scanStatus;
+    private Map<String, ScanStatus> targetStatus;
+    private RiskGate riskGate;
 
     /**
      * Location of the host of the ZAP proxy
@@ -69,13 +82,43 @@ public class ProcessZAP extends AbstractMojo {
     private int zapProxyPort;
 
     /**
-     * Location of the port of the ZAP proxy
+     * Milliseconds to wait for ZAP to answer an API call, 0 for no limit
+     *
+     * @parameter default-value="300000"
+     */
+    private int zapApiTimeout;
+
+    /**
+     * URL of the site to spider and scan
      *
      * @parameter
-     * @required
      */
     private String targetURL;
 
+    /**
+     * URLs of several sites to spider and scan on the same ZAP, in addition to targetURL.
+     * A report is written for each site and one for all of them.
+     *
+     * @parameter
+     */
+    private List<String> targetURLs;
+
+    /**
+     * Number of sites spidered and scanned at the same time on each ZAProxy, and of pages of a site scanned at the
+     * same time with incrementalScan or shardCount
+     *
+     * @parameter default-value="1"
+     */
+    private int maxConcurrentScans;
+
+    /**
+     * Number of ZAProxy instances started by start-zap on the ports following zapProxyPort.
+     * The sites are spread over the instances and their alerts are merged into one report.
+     *
+     * @parameter default-value="1"
+     */
+    private int zapInstances;
+
     /**
      * Switch to spider the URL
      *
@@ -90,6 +133,132 @@ public class ProcessZAP extends AbstractMojo {
      */
     private boolean scanURL;
 
+    /**
+     * Maximum seconds for spidering and scanning all sites, 0 for no limit. Scans which run out of time are stopped
+     * and the reports are marked as incomplete.
+     *
+     * @parameter default-value="0"
+     */
+    private int maxScanDuration;
+
+    /**
+     * Percentage of the time of a site under maxScanDuration for its spider. The time the spider does not use goes
+     * to the active scan.
+     *
+     * @parameter default-value="30"
+     */
+    private int spiderBudgetPercent;
+
+    /**
+     * Number of threads the spider uses. Unset to keep the setting of ZAP.
+     *
+     * @parameter
+     */
+    private Integer spiderThreads;
+
+    /**
+     * Maximum depth of links the spider follows. Unset to keep the setting of ZAP.
+     *
+     * @parameter
+     */
+    private Integer spiderMaxDepth;
+
+    /**
+     * Number of threads the active scan uses for each host. Unset to keep the setting of ZAP.
+     *
+     * @parameter
+     */
+    private Integer ascanThreadsPerHost;
+
+    /**
+     * Number of hosts the active scan scans in parallel. Unset to keep the setting of ZAP.
+     *
+     * @parameter
+     */
+    private Integer ascanHostsPerScan;
+
+    /**
+     * Delay in milliseconds between the requests of the active scan, to spare weak targets.
+     * Unset to keep the setting of ZAP.
+     *
+     * @parameter
+     */
+    private Integer ascanDelayInMs;
+
+    /**
+     * Maximum minutes the active scan spends on one rule, 0 for no limit. Unset to keep the setting of ZAP.
+     *
+     * @parameter
+     */
+    private Integer ascanMaxRuleDurationInMins;
+
+    /**
+     * Maximum minutes of an active scan, 0 for no limit. Unset to keep the setting of ZAP.
+     *
+     * @parameter
+     */
+    private Integer ascanMaxScanDurationInMins;
+
+    /**
+     * Only actively scan the URLs whose response changed since the last build.
+     * The alerts of the unchanged URLs are taken over from the last build.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean incrementalScan;
+
+    /**
+     * Number of the share of the URLs this build scans, from 0 to shardCount - 1
+     *
+     * @parameter expression="${zap.shardIndex}" default-value="0"
+     */
+    private int shardIndex;
+
+    /**
+     * Split the active scan of the spidered URLs into this many shares by a hash of the URL, to scan them on as
+     * many build agents. Each agent also writes its alerts sorted to a "-shard&lt;shardIndex&gt;.json" report, which
+     * the merge-zap-reports goal merges.
+     *
+     * @parameter expression="${zap.shardCount}" default-value="1"
+     */
+    private int shardCount;
+
+    /**
+     * Location to keep the fingerprints and alerts of the scanned URLs between builds
+     *
+     * @parameter default-value="${project.build.directory}/zap-fingerprints"
+     */
+    private String fingerprintDirectory;
+
+    /**
+     * Artifacts deployed for the scan, e.g. the war file. When set, the reports of a build with the same artifacts
+     * and the same settings are taken from the scan cache instead of scanning again.
+     *
+     * @parameter
+     */
+    private List<String> cacheInputs;
+
+    /**
+     * Location of the scan cache, shared by the builds on this machine
+     *
+     * @parameter default-value="${user.home}/.zap-scan-cache"
+     */
+    private String scanCacheDirectory;
+
+    /**
+     * Maximum number of scans kept in the scan cache, the least recently used are evicted first. 0 for no limit.
+     *
+     * @parameter default-value="20"
+     */
+    private int scanCacheMaxEntries;
+
+    /**
+     * Maximum size in bytes of all scans in the scan cache together. 0 for no limit.
+     *
+     * @parameter default-value="524288000"
+     */
+    private long scanCacheMaxBytes;
+
     /**
      * Save session of scan
      *
@@ -104,6 +273,14 @@ public class ProcessZAP extends AbstractMojo {
      */
     private boolean shutdownZAP;
 
+    /**
+     * Share one ZAProxy between all modules of a reactor build, see start-zap. Instead of shutting ZAProxy down a
+     * new session is opened for the next module, only the last module shuts it down.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean shareZap;
+
     /**
      * Save session of scan
      *
@@ -118,6 +295,41 @@ public class ProcessZAP extends AbstractMojo {
      */
     private String reportsDirectory;
 
+    /**
+     * Write the reports with one entry per alert
+     *
+     * @parameter default-value="true"
+     */
+    private boolean rawReport;
+
+    /**
+     * Also write a grouped report, with one entry per plugin, risk and parameter and the number of alerts of each
+     *
+     * @parameter default-value="false"
+     */
+    private boolean aggregateAlerts;
+
+    /**
+     * Number of sample URLs listed for each entry of the grouped report
+     *
+     * @parameter default-value="5"
+     */
+    private int aggregateSampleUrls;
+
+    /**
+     * Write the reports gzip compressed, with ".gz" appended to their names
+     *
+     * @parameter default-value="false"
+     */
+    private boolean compressReports;
+
+    /**
+     * Write the timings and throughput of the build to zap-metrics.json and zap-metrics.prom in the reports directory
+     *
+     * @parameter default-value="true"
+     */
+    private boolean writeMetrics;
+
     /**
      * Set the output format type, in addition to the XML report. Must be one of "none" or "json".
      *
@@ -125,6 +337,68 @@ public class ProcessZAP extends AbstractMojo {
      */
     private String format;
 
+    /**
+     * Number of alerts fetched from ZAP per request. With 0 all alerts are fetched with one request,
+     * which is the only option for versions of ZAP without start and count on the alerts view.
+     *
+     * @parameter default-value="0"
+     */
+    private int alertPageSize;
+
+    /**
+     * Fetch the alerts while ZAP is still scanning, so the reports are done soon after the scan. Needs a version of
+     * ZAP with start and count on the alerts view.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean harvestAlerts;
+
+    /**
+     * Milliseconds between two rounds of fetching the new alerts while ZAP is scanning
+     *
+     * @parameter default-value="5000"
+     */
+    private long alertHarvestInterval;
+
+    /**
+     * Fail the build if ZAP reports an alert at or above this risk, one of Informational, Low, Medium or High.
+     * The first of these alerts are written to a "-risk-gate.json" file next to the reports.
+     *
+     * @parameter
+     */
+    private String failOnRisk;
+
+    /**
+     * With failOnRisk, watch the alerts while ZAP is scanning and stop the scan at the first alert at or above the
+     * risk instead of failing after the full scan. Implies harvestAlerts.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean failFast;
+
+    /**
+     * Also write the alerts into a binary ".alerts" store, which {@link AlertStore} reads through a memory mapping
+     * to find the alerts of a risk, plugin or host without parsing a whole report. The store is not compressed.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean alertStore;
+
+    /**
+     * A report of an earlier build, XML or JSON and gzipped if it ends with ".gz", to compare the alerts with. The
+     * alerts which are new and the alerts which are no longer reported are written to a "-diff.json" report.
+     *
+     * @parameter
+     */
+    private String baselineReport;
+
+    /**
+     * Number of alert pages fetched from ZAP in parallel
+     *
+     * @parameter default-value="4"
+     */
+    private int alertFetchThreads;
+
     /**
      * Set the plugin to skip its execution.
      *
@@ -171,115 +445,762 @@ public class ProcessZAP extends AbstractMojo {
     }
 
     /**
-     * Change the ZAP API status response to an integer
+     * Get the scan id from the response of starting a scan
      *
-     * @param response the ZAP APIresponse code
-     * @return
+     * @param response the ZAP API response
+     * @return the scan id or null if this version of ZAP does not report one
      */
-    private int statusToInt(ApiResponse response) {
-        return Integer.parseInt(((ApiResponseElement)response).getValue());
+    private String scanId(ApiResponse response) {
+        if (response instanceof ApiResponseElement) {
+            String value = ((ApiResponseElement) response).getValue();
+            if (value != null && value.matches("\\d+")) {
+                return value;
+            }
+        }
+        return null;
     }
 
     /**
      * Search for all links and pages on the URL
      *
+     * @param zap the ZAProxy to use
      * @param url the to investigate URL
+     * @param deadline the time the spider is stopped if it is not done, Long.MAX_VALUE for no limit
      * @throws ClientApiException
+     * @throws IOException
+     * @throws InterruptedException
      */
-    private void spiderURL(String url) throws ClientApiException {
-        zapClientAPI.spider.scan(url);
+    private void spiderURL(ZapInstance zap, String url, long deadline) throws ClientApiException, IOException,
+            InterruptedException {
+        Object options = applyOptions(zap, "spider", spiderOptions());
+        String scanId = scanId(zap.getClient().spider.scan(url));
 
-        while ( statusToInt(zapClientAPI.spider.status()) < 100) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                getLog().error(e.toString());
-            }
+        ScanProgressTracker tracker = new ScanProgressTracker(zap.getApi(), "spider", scanId, getLog());
+        tracker.stopOn(failFastGate());
+        long duration = tracker.waitForCompletion(deadline);
+        if (tracker.isStopped()) {
+            incomplete(url, "spider of " + url + " stopped after " + ScanProgressTracker.formatDuration(duration));
         }
+        List<String> results = (scanId == null) ? zap.getApi().list("spider", "results")
+                : zap.getApi().list("spider", "results", "scanId", scanId);
+        getLog().info("Spidered " + results.size() + " URLs of [" + url + "] in "
+                + ScanProgressTracker.formatDuration(duration) + " with " + options);
+        metrics.recordRate("zap_spider", "urls", url, duration, results.size());
     }
 
     /**
      * Scan all pages found at url
      *
+     * @param zap the ZAProxy to use
      * @param url the url to scan
+     * @param deadline the time the scan is stopped if it is not done, Long.MAX_VALUE for no limit
+     * @return false if the scan was stopped before it was done
      * @throws ClientApiException
+     * @throws IOException
+     * @throws InterruptedException
      */
-    private void scanURL(String url) throws ClientApiException {
-        zapClientAPI.ascan.scan(url, "true", "false");
+    private boolean scanURL(ZapInstance zap, String url, long deadline) throws ClientApiException, IOException,
+            InterruptedException {
+        Object options = applyOptions(zap, "ascan", ascanOptions());
+        long messages = numberOfMessages(zap, url);
+        String scanId = scanId(zap.getClient().ascan.scan(url, "true", "false"));
 
-        while ( statusToInt(zapClientAPI.ascan.status()) < 100) {
+        ScanProgressTracker tracker = new ScanProgressTracker(zap.getApi(), "ascan", scanId, getLog());
+        tracker.stopOn(failFastGate());
+        long duration = tracker.waitForCompletion(deadline);
+        if (tracker.isStopped()) {
+            incomplete(url, "active scan of " + url + " stopped after "
+                    + ScanProgressTracker.formatDuration(duration));
+        }
+        long requests = numberOfMessages(zap, url) - messages;
+        getLog().info("Scanned [" + url + "] with " + requests + " requests in "
+                + ScanProgressTracker.formatDuration(duration) + " with " + options);
+        metrics.recordRate("zap_ascan", "requests", url, duration, requests);
+        return !tracker.isStopped();
+    }
+
+    /**
+     * Scan the pages of a site one by one: with shardCount only the pages of this shard, with incrementalScan only
+     * the pages whose response changed since the last build. Up to maxConcurrentScans pages are scanned at the same
+     * time. If every page of the site changed, the site is scanned at once as without incrementalScan.
+     *
+     * @param zap the ZAProxy to use
+     * @param url the url of the site
+     * @param deadline the time the scan is stopped if it is not done, Long.MAX_VALUE for no limit
+     * @throws Exception the failure of the first failing page
+     */
+    private void scanURLs(final ZapInstance zap, final String url, final long deadline) throws Exception {
+        List<String> pages = new ArrayList<String>();
+        final Map<String, String> fingerprints = new HashMap<String, String>();
+        int total = 0;
+        int sharded = 0;
+        for (String page : zap.getApi().list("core", "urls")) {
+            if (!page.startsWith(url)) {
+                continue;
+            }
+            total++;
+            if (shardCount > 1 && shardOf(page, shardCount) != shardIndex) {
+                continue;
+            }
+            sharded++;
+            if (fingerprintStore == null) {
+                pages.add(page);
+                continue;
+            }
+            String fingerprint = FingerprintStore.fingerprint(zap.getApi().openThroughProxy(page));
+            if (fingerprintStore.isChanged(page, fingerprint)) {
+                pages.add(page);
+                fingerprints.put(page, fingerprint);
+            } else {
+                fingerprintStore.update(page, fingerprint);
+            }
+        }
+        if (shardCount > 1) {
+            getLog().info("Shard " + shardIndex + " of " + shardCount + " has " + sharded + " of " + total
+                    + " URLs of [" + url + "]");
+            metrics.record("zap_shard_urls", "target", url, sharded);
+        }
+        if (fingerprintStore != null) {
+            getLog().info(pages.size() + " of " + sharded + " URLs of [" + url + "] changed since the last build");
+            metrics.record("zap_incremental_changed_urls", "target", url, pages.size());
+            metrics.record("zap_incremental_urls", "target", url, sharded);
+        }
+        if (shardCount <= 1 && pages.size() == sharded) {
+            // one recursive scan costs less than starting and polling a scan for every page
+            if (scanURL(zap, url, deadline)) {
+                for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+                    fingerprintStore.update(fingerprint.getKey(), fingerprint.getValue());
+                }
+            }
+            return;
+        }
+
+        Object options = applyOptions(zap, "ascan", ascanOptions());
+        long messages = numberOfMessages(zap, url);
+        long start = System.currentTimeMillis();
+        final AtomicInteger skipped = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrentScans));
+        try {
+            Map<String, Future<Void>> scans = new LinkedHashMap<String, Future<Void>>();
+            for (final String page : pages) {
+                scans.put(page, executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        if (System.currentTimeMillis() >= deadline || riskGateTripped()) {
+                            skipped.incrementAndGet();
+                            return null;
+                        }
+                        String scanId = scanId(zap.getClient().ascan.scan(page, "false", "false"));
+                        ScanProgressTracker tracker = new ScanProgressTracker(zap.getApi(), "ascan", scanId,
+                                getLog());
+                        tracker.stopOn(failFastGate());
+                        tracker.waitForCompletion(deadline);
+                        if (tracker.isStopped()) {
+                            incomplete(url, "active scan of " + page + " stopped");
+                        } else if (fingerprintStore != null) {
+                            fingerprintStore.update(page, fingerprints.get(page));
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            Exception failure = null;
+            for (Map.Entry<String, Future<Void>> scan : scans.entrySet()) {
+                try {
+                    scan.getValue().get();
+                } catch (ExecutionException e) {
+                    getLog().error("Scanning the URL [" + scan.getKey() + "] failed: " + e.getCause());
+                    if (failure == null) {
+                        failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (skipped.get() > 0) {
+            incomplete(url, "active scan of " + skipped.get() + " URLs of " + url + " skipped"
+                    + (riskGateTripped() ? " after an alert at or above risk " + failOnRisk : ""));
+        }
+        long duration = System.currentTimeMillis() - start;
+        long requests = numberOfMessages(zap, url) - messages;
+        getLog().info("Scanned " + (pages.size() - skipped.get()) + " URLs of [" + url + "] one by one, "
+                + Math.max(1, maxConcurrentScans) + " at the same time, with " + requests + " requests in "
+                + ScanProgressTracker.formatDuration(duration) + " with " + options);
+        metrics.recordRate("zap_ascan", "requests", url, duration, requests);
+    }
+
+    /**
+     * @return the spider options to set, by their name in the ZAP API
+     */
+    private Map<String, Integer> spiderOptions() {
+        Map<String, Integer> options = new LinkedHashMap<String, Integer>();
+        options.put("ThreadCount", spiderThreads);
+        options.put("MaxDepth", spiderMaxDepth);
+        return options;
+    }
+
+    /**
+     * @return the active scan options to set, by their name in the ZAP API
+     */
+    private Map<String, Integer> ascanOptions() {
+        Map<String, Integer> options = new LinkedHashMap<String, Integer>();
+        options.put("ThreadPerHost", ascanThreadsPerHost);
+        options.put("HostPerScan", ascanHostsPerScan);
+        options.put("DelayInMs", ascanDelayInMs);
+        options.put("MaxRuleDurationInMins", ascanMaxRuleDurationInMins);
+        options.put("MaxScanDurationInMins", ascanMaxScanDurationInMins);
+        return options;
+    }
+
+    /**
+     * Set the configured options of a scanner and read back the values ZAP applied
+     *
+     * @param zap the ZAProxy to set the options on
+     * @param component "spider" or "ascan"
+     * @param options the values to set by option name, null values are left as they are
+     * @return the values ZAP uses for the configured options, "the settings of ZAP" if none are configured
+     */
+    private Object applyOptions(ZapInstance zap, String component, Map<String, Integer> options) {
+        Map<String, String> applied = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, Integer> option : options.entrySet()) {
+            if (option.getValue() == null) {
+                continue;
+            }
+            String name = option.getKey();
             try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                getLog().error(e.toString());
+                zap.getApi().action(component, "setOption" + name, "Integer", option.getValue().toString());
+                String value = zap.getApi().view(component, "option" + name);
+                applied.put(name, value);
+                if (!option.getValue().toString().equals(value)) {
+                    getLog().warn(zap + " uses " + component + " option " + name + " " + value + " instead of "
+                            + option.getValue());
+                } else {
+                    metrics.recordOnce("zap_" + component + "_option", "option", name, option.getValue().intValue());
+                }
+            } catch (IOException e) {
+                getLog().warn(zap + " does not support the " + component + " option " + name + ": " + e.toString());
             }
         }
+        return applied.isEmpty() ? "the settings of ZAP" : applied;
     }
 
     /**
-     * Get all alerts from ZAP proxy
+     * Count the messages ZAP sent and received for a site, to know the number of requests of a scan
      *
-     * @param json true for json form, false for xml format
-     * @return  all alerts from ZAProxy
+     * @param zap the ZAProxy
+     * @param url the url of the site
+     * @return the number of messages
+     * @throws IOException
+     */
+    private long numberOfMessages(ZapInstance zap, String url) throws IOException {
+        return Long.parseLong(zap.getApi().view("core", "numberOfMessages", "baseurl", url));
+    }
+
+    /**
+     * Spider and scan one site
+     *
+     * @param zap the ZAProxy to use
+     * @param url the url of the site
      * @throws Exception
      */
-    private String getAllAlerts(boolean json) throws Exception {
-        URL url;
-        String result = "";
+    private void scanTarget(ZapInstance zap, String url) throws Exception {
+        if (riskGateTripped()) {
+            incomplete(url, "the site " + url + " was not scanned after an alert at or above risk " + failOnRisk);
+            return;
+        }
+        long deadline = budget.startTarget();
+        if (deadline != Long.MAX_VALUE) {
+            getLog().info("The site [" + url + "] has "
+                    + ScanProgressTracker.formatDuration(deadline - System.currentTimeMillis()) + " to be scanned");
+        }
+        if (spiderURL) {
+            getLog().info("Spider the site [" + url + "] with " + zap);
+            spiderURL(zap, url, budget.spiderDeadline(deadline));
+        } else {
+            getLog().info("skip spidering the site [" + url + "]");
+        }
 
-        if (json) {
-            url = new URL("http://zap/json/core/view/alerts");
+        if (scanURL && riskGateTripped()) {
+            incomplete(url, "active scan of " + url + " skipped after an alert at or above risk " + failOnRisk);
+        } else if (scanURL) {
+            getLog().info("Scan the site [" + url + "] with " + zap);
+            if (fingerprintStore != null || shardCount > 1) {
+                scanURLs(zap, url, deadline);
+            } else {
+                scanURL(zap, url, deadline);
+            }
         } else {
-            url = new URL("http://zap/xml/core/view/alerts");
+            getLog().info("skip scanning the site [" + url + "]");
         }
+    }
 
-        getLog().info("Open URL: " + url.toString());
+    /**
+     * @return the risk gate to stop the scans on, null unless failFast is set
+     */
+    private RiskGate failFastGate() {
+        return failFast ? riskGate : null;
+    }
 
-        HttpURLConnection uc = (HttpURLConnection) url.openConnection(proxy);
-        uc.connect();
+    /**
+     * @return true if the scans should stop because failFast is set and an alert at or above failOnRisk was seen
+     */
+    private boolean riskGateTripped() {
+        return failFastGate() != null && riskGate.isTripped();
+    }
 
-        BufferedReader in = new BufferedReader(new InputStreamReader(
-                uc.getInputStream()));
-        String inputLine;
+    /**
+     * Write the alerts which tripped the risk gate and fail the build
+     *
+     * @param fileName_no_extension the file name of the report of all alerts
+     * @throws IOException
+     * @throws MojoExecutionException always
+     */
+    private void failOnRisk(String fileName_no_extension) throws IOException, MojoExecutionException {
+        List<Alert> evidence = riskGate.getEvidence();
+        String fileName = fileName_no_extension + "-risk-gate.json";
+        AlertWriter writer = new JsonAlertWriter(openReport(fileName, reportFiles));
+        try {
+            for (Alert alert : evidence) {
+                writer.write(alert);
+            }
+        } finally {
+            writer.close();
+        }
+        for (Alert alert : evidence.subList(0, Math.min(10, evidence.size()))) {
+            getLog().error(alert.getRisk() + ": " + alert.get("alert") + " at [" + alert.getUrl() + "]");
+        }
+        metrics.record("zap_risk_gate_alerts", "risk", riskGate.getThreshold(), riskGate.getCount());
+        throw new MojoExecutionException(riskGate.getCount() + " alerts at or above risk " + riskGate.getThreshold()
+                + ((failFast && !scanStatus.isComplete()) ? ", the scan was stopped at the first of them" : "")
+                + ", see [" + fileName + "]");
+    }
+
+    /**
+     * @param url a URL
+     * @param shardCount the number of shards
+     * @return the shard the URL belongs to, the same on every build agent
+     */
+    static int shardOf(String url, int shardCount) {
+        CRC32 crc = new CRC32();
+        try {
+            crc.update(url.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return (int) (crc.getValue() % shardCount);
+    }
+
+    /**
+     * Note that a site was not scanned completely, for its report and the report of all sites
+     *
+     * @param url the url of the site
+     * @param reason what was left out
+     */
+    private void incomplete(String url, String reason) {
+        targetStatus.get(url).incomplete(reason);
+        scanStatus.incomplete(reason);
+        metrics.recordOnce("zap_scan_incomplete", "target", url, 1);
+    }
 
-        while ((inputLine = in.readLine()) != null) {
-            result = result + inputLine;
+    /**
+     * Spider and scan all sites, spread over the ZAProxy instances with at most maxConcurrentScans
+     * at the same time on each of them. A failing site does not stop the others.
+     *
+     * @param targets the urls of the sites
+     * @throws Exception the failure of the first failing site
+     */
+    private void scanTargets(List<String> targets) throws Exception {
+        if (targets.isEmpty()) {
+            throw new MojoExecutionException("No targetURL or targetURLs to spider or scan");
+        }
+        if (instances.size() == 1 && (targets.size() == 1 || maxConcurrentScans <= 1)) {
+            for (String target : targets) {
+                scanTarget(instances.get(0), target);
+            }
+            return;
+        }
+
+        getLog().info("Scan " + targets.size() + " sites with " + instances.size() + " ZAProxy, "
+                + maxConcurrentScans + " at the same time on each");
+        Map<ZapInstance, ExecutorService> executors = new LinkedHashMap<ZapInstance, ExecutorService>();
+        for (ZapInstance zap : instances) {
+            executors.put(zap, Executors.newFixedThreadPool(Math.max(1, maxConcurrentScans)));
+        }
+        try {
+            Map<String, Future<Void>> scans = new LinkedHashMap<String, Future<Void>>();
+            for (final String target : targets) {
+                final ZapInstance zap = instanceFor(targets, target);
+                scans.put(target, executors.get(zap).submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        scanTarget(zap, target);
+                        return null;
+                    }
+                }));
+            }
+
+            Exception failure = null;
+            for (Map.Entry<String, Future<Void>> scan : scans.entrySet()) {
+                try {
+                    scan.getValue().get();
+                } catch (ExecutionException e) {
+                    getLog().error("Processing the site [" + scan.getKey() + "] failed: " + e.getCause());
+                    if (failure == null) {
+                        failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            for (ExecutorService executor : executors.values()) {
+                executor.shutdownNow();
+            }
         }
+    }
 
-        in.close();
-        return result;
+    /**
+     * Get the ZAProxy a site is scanned with, the sites are dealt round robin
+     *
+     * @param targets all sites
+     * @param target the site
+     * @return the ZAProxy of the site
+     */
+    private ZapInstance instanceFor(List<String> targets, String target) {
+        return instances.get(targets.indexOf(target) % instances.size());
+    }
 
+    /**
+     * @return targetURL and targetURLs without duplicates
+     */
+    private List<String> targets() {
+        Set<String> targets = new LinkedHashSet<String>();
+        if (targetURL != null && targetURL.length() > 0) {
+            targets.add(targetURL);
+        }
+        if (targetURLs != null) {
+            targets.addAll(targetURLs);
+        }
+        return new ArrayList<String>(targets);
     }
 
     /**
-     * Copies the html report from zap into the report directory
-     * @param filename the filename without extention where the report should be placed
-     * @throws Exception
+     * Make a part of a file name from a site url
+     *
+     * @param url the url of the site
+     * @return the url without scheme, with everything but letters and digits replaced
      */
-    private void writeHtmlReport(String filename) throws Exception {
-        String fullFileName = filename + ".html";
-        URL url = new URL("http://zap/html/core/view/alerts");
+    private String targetName(String url) {
+        return url.replaceFirst("^[a-zA-Z]+://", "").replaceAll("[^a-zA-Z0-9]+", "_").replaceAll("^_|_$", "");
+    }
 
-        getLog().info("Open URL: " + url.toString());
+    /**
+     * Open a report file for writing, compressed if compressReports is set
+     *
+     * @param fullFileName the name of the report file
+     * @return the buffered stream of the file
+     * @throws IOException
+     */
+    private OutputStream openReport(String fullFileName) throws IOException {
+        return ReportFiles.open(fullFileName, compressReports);
+    }
 
-        HttpURLConnection uc = (HttpURLConnection) url.openConnection(proxy);
-        uc.connect();
+    /**
+     * Open a report file for writing and remember it for the metrics
+     *
+     * @param fullFileName the name of the report file
+     * @param opened the list of opened files to add to
+     * @return the buffered stream of the file
+     * @throws IOException
+     */
+    private OutputStream openReport(String fullFileName, List<File> opened) throws IOException {
+        opened.add(new File(compressReports ? fullFileName + ReportFiles.GZIP_SUFFIX : fullFileName));
+        return openReport(fullFileName);
+    }
 
-        BufferedReader in = new BufferedReader(new InputStreamReader(
-                uc.getInputStream()));
-        FileWriter fstream = new FileWriter(fullFileName);
+    /**
+     * Open the XML and HTML reports and, if requested, the JSON and grouped reports.
+     * Each format is written on its own thread from the same alerts, only a queue of alerts per format is held in
+     * memory.
+     *
+     * @param filename the filename without extention where the reports should be placed
+     * @param baseUrl the alerts of URLs starting with this URL go into the reports, empty for all alerts
+     * @return the open reports
+     * @throws IOException
+     */
+    private AlertReport startAlertReport(String filename, String baseUrl) throws IOException {
+        AlertReport report = new AlertReport(filename, baseUrl);
+        ScanStatus status = (baseUrl.length() == 0) ? scanStatus : targetStatus.get(baseUrl);
+        List<File> files = report.files;
+        CompositeAlertWriter writers = report.writers;
+        if (riskGate != null && baseUrl.length() == 0) {
+            writers.add(riskGate);
+        }
+        try {
+            boolean json = JSON_FORMAT.equals(format);
+            if (json) {
+                getLog().debug("XML and JSON reports will be generated");
+            } else if (NONE_FORMAT.equals(format)) {
+                getLog().info("Only XML report will be generated");
+            } else {
+                getLog().info("This format is not supported ["+format+"] ; please choose 'none' or 'json'");
+            }
+            if (rawReport) {
+                writers.add(new AsyncAlertWriter("xml",
+                        new XmlAlertWriter(openReport(filename + ".xml", files), status)));
+                writers.add(new AsyncAlertWriter("html",
+                        new HtmlAlertWriter(openReport(filename + ".html", files), status)));
+                if (json) {
+                    writers.add(new AsyncAlertWriter("json",
+                            new JsonAlertWriter(openReport(filename + ".json", files), status)));
+                }
+            }
+            if (aggregateAlerts) {
+                writers.add(new AsyncAlertWriter("grouped", new AlertAggregator(
+                        openReport(filename + "-grouped.xml", files),
+                        json ? openReport(filename + "-grouped.json", files) : null, aggregateSampleUrls, status)));
+            }
+            if (shardCount > 1 && baseUrl.length() == 0) {
+                writers.add(new AsyncAlertWriter("shard", new SortingAlertWriter(new JsonAlertWriter(
+                        openReport(filename + "-shard" + shardIndex + ".json", files), status), SHARD_SORT_BUFFER)));
+            }
+            if (alertStore && baseUrl.length() == 0) {
+                files.add(new File(filename + ".alerts"));
+                writers.add(new AsyncAlertWriter("store", new AlertStoreWriter(filename + ".alerts", status)));
+            }
+            if (baselineReport != null && baselineReport.length() > 0 && baseUrl.length() == 0) {
+                File baseline = new File(baselineReport);
+                if (baseline.isFile()) {
+                    report.diff = new BaselineDiff(baseline, openReport(filename + "-diff.json", files), status);
+                    writers.add(new AsyncAlertWriter("diff", report.diff));
+                } else {
+                    getLog().warn("No baseline report [" + baselineReport + "], no diff report is written");
+                }
+            }
+        } catch (IOException e) {
+            writers.close();
+            throw e;
+        }
+        return report;
+    }
+
+    /**
+     * Stream all alerts from ZAP into the report of all alerts and the reports of the sites scanned with it.
+     * Every ZAProxy is asked for its alerts once, only a few pages of alerts when paging are held in memory.
+     *
+     * @param all the report of all alerts
+     * @param targetReports the reports of the sites by url, empty if there is only one site
+     * @param targets the urls of the sites
+     * @throws IOException
+     */
+    private void fetchAlerts(AlertReport all, Map<String, AlertReport> targetReports, List<String> targets)
+            throws IOException {
+        for (ZapInstance zap : instances) {
+            CompositeAlertWriter writer = new CompositeAlertWriter();
+            writer.add(all);
+            for (Map.Entry<String, AlertReport> target : targetReports.entrySet()) {
+                if (instanceFor(targets, target.getKey()) == zap) {
+                    writer.add(siteAlerts(target.getKey(), target.getValue()));
+                }
+            }
+            AlertFetcher fetcher = new AlertFetcher(zap.getApi(), alertPageSize, alertFetchThreads, getLog());
+            fetcher.fetch("", (fingerprintStore != null) ? fingerprintStore.recording(writer) : writer);
+        }
+    }
+
+    /**
+     * Start harvesting the alerts of every ZAProxy in the background, into the report of all alerts and the
+     * reports of the sites scanned with it
+     *
+     * @param all the report of all alerts
+     * @param targetReports the reports of the sites by url, empty if there is only one site
+     * @param targets the urls of the sites
+     * @return the running harvesters
+     */
+    private List<AlertHarvester> startHarvesters(AlertReport all, Map<String, AlertReport> targetReports,
+            List<String> targets) {
+        List<AlertHarvester> harvesters = new ArrayList<AlertHarvester>();
+        for (ZapInstance zap : instances) {
+            CompositeAlertWriter writer = new CompositeAlertWriter();
+            writer.add(all);
+            for (Map.Entry<String, AlertReport> target : targetReports.entrySet()) {
+                if (instanceFor(targets, target.getKey()) == zap) {
+                    writer.add(siteAlerts(target.getKey(), target.getValue()));
+                }
+            }
+            AlertHarvester harvester = new AlertHarvester(zap.toString(), zap.getApi(), alertPageSize,
+                    alertHarvestInterval, (fingerprintStore != null) ? fingerprintStore.recording(writer) : writer,
+                    getLog());
+            harvester.start();
+            harvesters.add(harvester);
+        }
+        return harvesters;
+    }
+
+    /**
+     * @param baseUrl the url of a site
+     * @param report the report of the site
+     * @return a writer which hands on the alerts of URLs starting with baseUrl to the report, closing it does not
+     *         close the report
+     */
+    private AlertWriter siteAlerts(final String baseUrl, final AlertReport report) {
+        return new AlertWriter() {
+            public void write(Alert alert) throws IOException {
+                if (alert.getUrl() != null && alert.getUrl().startsWith(baseUrl)) {
+                    report.write(alert);
+                }
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Add the alerts taken over from the last build, close the reports and record their metrics
+     *
+     * @param report the open reports
+     * @throws IOException
+     */
+    private void finishAlertReport(AlertReport report) throws IOException {
+        ScanStatus status = (report.baseUrl.length() == 0) ? scanStatus : targetStatus.get(report.baseUrl);
+        try {
+            if (fingerprintStore != null) {
+                int cached = fingerprintStore.writeCachedAlerts(report.baseUrl, report);
+                getLog().info("Took over " + cached + " alerts of unchanged URLs from the last build");
+            }
+            if (!status.isComplete()) {
+                getLog().warn("The report [" + report.filename + "] is incomplete: " + status.getIncompleteReason());
+            }
+            getLog().info("Reported " + report.count + " alerts");
+        } finally {
+            report.close();
+        }
+        if (report.diff != null) {
+            getLog().info(report.diff.getAdded() + " new and " + report.diff.getResolved()
+                    + " resolved alerts compared with [" + baselineReport + "]");
+            metrics.record("zap_baseline_alerts", "change", "new", report.diff.getAdded());
+            metrics.record("zap_baseline_alerts", "change", "resolved", report.diff.getResolved());
+        }
+
+        reportFiles.addAll(report.files);
+        String target = (report.baseUrl.length() == 0) ? "all" : report.baseUrl;
+        metrics.recordRate("zap_report", "alerts", target, System.currentTimeMillis() - report.start, report.count);
+        for (File file : report.files) {
+            Map<String, String> labels = new LinkedHashMap<String, String>();
+            labels.put("target", target);
+            labels.put("kind", reportKind(report, file));
+            metrics.record("zap_report_bytes", labels, file.length());
+        }
+    }
+
+    /**
+     * @param report the open reports
+     * @param file one of the report files
+     * @return the kind of the report file, e.g. "xml", "grouped.json" or "shard.json"
+     */
+    private String reportKind(AlertReport report, File file) {
+        String kind = file.getPath().substring(report.filename.length());
+        if (kind.endsWith(ReportFiles.GZIP_SUFFIX)) {
+            kind = kind.substring(0, kind.length() - ReportFiles.GZIP_SUFFIX.length());
+        }
+        return kind.replaceFirst("^[-.]", "").replaceFirst("^shard\\d+", "shard");
+    }
+
+    /**
+     * Compute the key of this build in the scan cache, from the deployed artifacts and the settings which change
+     * what is scanned and reported
+     *
+     * @param targets the urls of the sites
+     * @return the key
+     * @throws IOException
+     */
+    private String scanCacheKey(List<String> targets) throws IOException {
+        List<File> inputs = new ArrayList<File>();
+        for (String input : cacheInputs) {
+            inputs.add(new File(input));
+        }
+        if (baselineReport != null && new File(baselineReport).isFile()) {
+            inputs.add(new File(baselineReport));
+        }
+        String settings = "targets=" + targets + ";spiderURL=" + spiderURL + ";scanURL=" + scanURL
+                + ";incrementalScan=" + incrementalScan + ";zapInstances=" + zapInstances
+                + ";maxScanDuration=" + maxScanDuration + ";spiderBudgetPercent=" + spiderBudgetPercent
+                + ";spiderOptions=" + spiderOptions() + ";ascanOptions=" + ascanOptions()
+                + ";reportAlerts=" + reportAlerts + ";rawReport=" + rawReport + ";aggregateAlerts=" + aggregateAlerts
+                + ";aggregateSampleUrls=" + aggregateSampleUrls + ";alertStore=" + alertStore
+                + ";failOnRisk=" + failOnRisk
+                + ";compressReports=" + compressReports + ";shardIndex=" + shardIndex + ";shardCount=" + shardCount
+                + ";format=" + format;
+        return ScanResultCache.digest(inputs, settings);
+    }
 
-        String line;
-        String content = "";
+    /**
+     * Open the report of all alerts and, with more than one site, the report of each site
+     *
+     * @param fileName_no_extension the file name of the report of all alerts, the reports of the sites add the site
+     * @param targets the urls of the sites
+     * @return the report of all alerts followed by the reports of the sites
+     * @throws IOException
+     */
+    private List<AlertReport> startAlertReports(String fileName_no_extension, List<String> targets)
+            throws IOException {
+        List<AlertReport> reports = new ArrayList<AlertReport>();
+        try {
+            reports.add(startAlertReport(fileName_no_extension, ""));
+            if (targets.size() > 1) {
+                for (String target : targets) {
+                    reports.add(startAlertReport(fileName_no_extension + "-" + targetName(target), target));
+                }
+            }
+        } catch (IOException e) {
+            abortAlertReports(null, reports);
+            throw e;
+        }
+        return reports;
+    }
 
-        while ((line = in.readLine()) != null) {
-            content += line;
-            getLog().debug(line);
+    /**
+     * @param reports the report of all alerts followed by the reports of the sites
+     * @return the reports of the sites by url
+     */
+    private Map<String, AlertReport> targetReports(List<AlertReport> reports) {
+        Map<String, AlertReport> targetReports = new LinkedHashMap<String, AlertReport>();
+        for (AlertReport report : reports.subList(1, reports.size())) {
+            targetReports.put(report.baseUrl, report);
         }
-        fstream.write(content);
+        return targetReports;
+    }
 
-        fstream.close();
-        in.close();
+    /**
+     * Stop the harvesters and close the reports of a failed build, with the alerts written so far
+     *
+     * @param harvesters the running harvesters, null if none
+     * @param reports the open reports, null if none
+     */
+    private void abortAlertReports(List<AlertHarvester> harvesters, List<AlertReport> reports) {
+        if (harvesters != null) {
+            for (AlertHarvester harvester : harvesters) {
+                try {
+                    harvester.abort();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (reports != null) {
+            for (AlertReport report : reports) {
+                try {
+                    report.close();
+                } catch (IOException e) {
+                    getLog().error("Unable to close the report [" + report.filename + "]: " + e.toString());
+                }
+            }
+        }
     }
 
     /**
@@ -290,99 +1211,336 @@ public class ProcessZAP extends AbstractMojo {
     public void execute() throws MojoExecutionException {
         if (skip) {
             getLog().info("Skipping zap exection");
+            releaseSharedZap(true);
             return;
         }
+        List<AlertReport> reports = null;
+        List<AlertHarvester> harvesters = null;
+        boolean finished = false;
         try {
+            if (shardCount > 1 && (shardIndex < 0 || shardIndex >= shardCount)) {
+                throw new MojoExecutionException("shardIndex must be from 0 to " + (shardCount - 1) + ", not "
+                        + shardIndex);
+            }
 
-            zapClientAPI = getZapClient();
-            proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(zapProxyHost, zapProxyPort));
-
-            if (spiderURL) {
-                getLog().info("Spider the site [" + targetURL + "]");
-                spiderURL(targetURL);
-            } else {
-                getLog().info("skip spidering the site [" + targetURL + "]");
+            instances = new ArrayList<ZapInstance>();
+            for (int i = 0; i < Math.max(1, zapInstances); i++) {
+                int port = zapProxyPort + i;
+                ClientApi client = (i == 0) ? getZapClient() : getZapClient(port);
+                ZapApi api = new ZapApi(zapProxyHost, port, ZapApi.CONNECT_TIMEOUT, zapApiTimeout, getLog());
+                instances.add(new ZapInstance(port, client, api));
+            }
+            if (incrementalScan) {
+                fingerprintStore = new FingerprintStore(new File(fingerprintDirectory));
             }
+            metrics = new ScanMetrics();
+            for (ZapInstance zap : instances) {
+                metrics.addStartup(zap.getPort());
+            }
+            reportFiles = new ArrayList<File>();
 
-            if (scanURL) {
-                getLog().info("Scan the site [" + targetURL + "]");
-                scanURL(targetURL);
-            } else {
-                getLog().info("skip scanning the site [" + targetURL + "]");
+            List<String> targets = targets();
+            scanStatus = new ScanStatus();
+            targetStatus = new LinkedHashMap<String, ScanStatus>();
+            for (String target : targets) {
+                targetStatus.put(target, new ScanStatus());
+            }
+            riskGate = (failOnRisk != null && failOnRisk.length() > 0) ? new RiskGate(failOnRisk) : null;
+            if (riskGate != null && !reportAlerts) {
+                getLog().warn("failOnRisk checks the reported alerts, but reportAlerts is off");
+            } else if (failFastGate() != null && !harvestAlerts) {
+                getLog().info("failFast watches the alerts during the scan, harvesting them");
+            }
+            budget = new ScanBudget(maxScanDuration * 1000L, spiderBudgetPercent, targets.size(),
+                    instances.size() * Math.max(1, maxConcurrentScans));
+            ScanResultCache scanCache = null;
+            String cacheKey = null;
+            if (cacheInputs != null && !cacheInputs.isEmpty()) {
+                scanCache = new ScanResultCache(new File(scanCacheDirectory), scanCacheMaxEntries, scanCacheMaxBytes,
+                        getLog());
+                cacheKey = scanCacheKey(targets);
+                // only scans which passed failOnRisk are cached, and failOnRisk is part of the key
+                String session = scanCache.restore(cacheKey, new File(reportsDirectory));
+                metrics.record("zap_scan_cache_hit", null, null, (session != null) ? 1 : 0);
+                if (session != null) {
+                    getLog().info("The artifacts and settings were scanned before, reports restored from the scan cache"
+                            + " entry " + cacheKey + ((session.length() > 0) ? ", session " + session : ""));
+                    // ZAP is not asked for anything, but it is still shut down below
+                    return;
+                }
+                getLog().info("No scan cache entry " + cacheKey + ", scanning");
             }
 
             // filename to share between the session file and the report file
-            String fileName = "";
-            if (saveSession) {
+            String fileName = createTempFilename("ZAP", "");
+            String fileName_no_extension = FilenameUtils.concat(reportsDirectory, fileName);
 
-                fileName = createTempFilename("ZAP", "");
-
-                zapClientAPI.core.saveSession(fileName);
+            if (reportAlerts && (harvestAlerts || failFastGate() != null)) {
+                reports = startAlertReports(fileName_no_extension, targets);
+                harvesters = startHarvesters(reports.get(0), targetReports(reports), targets);
+            }
+            if (spiderURL || scanURL) {
+                scanTargets(targets);
             } else {
-                getLog().info("skip saveSession");
+                getLog().info("skip spidering and scanning the sites " + targets);
             }
 
-            if (reportAlerts) {
-
-                // reuse fileName of the session file
-                if ((fileName == null) || (fileName.length() == 0))
-                    fileName = createTempFilename("ZAP", "");
-
-                String fileName_no_extension = FilenameUtils.concat(reportsDirectory, fileName);
-
-                try {
-                    String alerts = getAllAlerts(true);
-                    JSON jsonObj = JSONSerializer.toJSON(alerts);
-
-                    writeXml(fileName_no_extension, jsonObj);
-                    writeHtmlReport(fileName_no_extension);
-                    if (JSON_FORMAT.equals(format)) {
-                        writeJson(fileName_no_extension, jsonObj);
-                    } else if (NONE_FORMAT.equals(format)) {
-                        getLog().info("Only XML report will be generated");
-                    } else {
-                        getLog().info("This format is not supported ["+format+"] ; please choose 'none' or 'json'");
-                    }
-                } catch (Exception e) {
-                    getLog().error(e.toString());
-                    e.printStackTrace();
-                }
+            if (reportAlerts && reports == null) {
+                reports = startAlertReports(fileName_no_extension, targets);
+            }
+            // ZAP is shut down along with finishing the scan
+            finished = true;
+            finishScan(fileName, targets, harvesters, reports, scanCache, cacheKey);
+            harvesters = null;
+            if (riskGate != null && riskGate.isTripped()) {
+                failOnRisk(fileName_no_extension);
             }
 
+        } catch (MojoExecutionException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Processing with ZAP was interrupted", e);
         } catch (Exception e) {
             getLog().error(e.toString());
             throw new MojoExecutionException("Processing with ZAP failed", e);
         } finally {
-            if (shutdownZAP && (zapClientAPI != null)) {
+            abortAlertReports(harvesters, reports);
+            if (writeMetrics && (metrics != null)) {
                 try {
-                    getLog().info("Shutdown ZAProxy");
-                    zapClientAPI.core.shutdown();
-                } catch (Exception e) {
-                    getLog().error(e.toString());
-                    e.printStackTrace();
+                    metrics.write(new File(reportsDirectory));
+                } catch (IOException e) {
+                    getLog().error("Unable to write the metrics: " + e.toString());
+                }
+            }
+            if (!finished) {
+                if (shutdownZAP && (instances != null)) {
+                    for (ZapInstance zap : instances) {
+                        try {
+                            shutdown(zap);
+                        } catch (Exception e) {
+                            getLog().error(e.toString());
+                            e.printStackTrace();
+                        }
+                    }
+                } else {
+                    getLog().info("No shutdown of ZAP");
+                    releaseSharedZap(shutdownZAP);
                 }
-            } else {
-                getLog().info("No shutdown of ZAP");
             }
         }
     }
 
-    protected ClientApi getZapClient() {
-        return new ClientApi(zapProxyHost, zapProxyPort);
+    /**
+     * Save the sessions, export the alerts and shut ZAP down. The sessions of the ZAProxy instances are saved at the
+     * same time as the alerts are exported, a ZAProxy is shut down once its session is saved and the alerts are
+     * exported.
+     *
+     * @param fileName the common file name of the sessions
+     * @param targets the urls of the sites
+     * @param harvesters the harvesters of the alerts, null if the alerts are fetched after the scan
+     * @param reports the open reports, null if no alerts are reported
+     * @param scanCache the scan cache, null if none
+     * @param cacheKey the key of this build in the scan cache
+     * @throws InterruptedException
+     * @throws MojoExecutionException if a session could not be saved
+     */
+    private void finishScan(final String fileName, final List<String> targets,
+            final List<AlertHarvester> harvesters, final List<AlertReport> reports, final ScanResultCache scanCache,
+            final String cacheKey) throws InterruptedException, MojoExecutionException {
+        TaskGraph graph = new TaskGraph(getLog());
+        Map<ZapInstance, TaskGraph.Task> sessions = new LinkedHashMap<ZapInstance, TaskGraph.Task>();
+        if (saveSession) {
+            for (final ZapInstance zap : instances) {
+                sessions.put(zap, graph.add("save the session of " + zap, new Callable<Void>() {
+                    public Void call() throws Exception {
+                        zap.getClient().core.saveSession(instanceFileName(fileName, zap));
+                        return null;
+                    }
+                }));
+            }
+        } else {
+            getLog().info("skip saveSession");
+        }
+
+        TaskGraph.Task export = null;
+        if (reports != null) {
+            export = graph.add("export the alerts", new Callable<Void>() {
+                public Void call() throws Exception {
+                    exportAlerts(targets, harvesters, reports);
+                    return null;
+                }
+            });
+            if (scanCache != null) {
+                List<TaskGraph.Task> stored = new ArrayList<TaskGraph.Task>(sessions.values());
+                stored.add(export);
+                graph.add("store the reports in the scan cache", new Callable<Void>() {
+                    public Void call() throws Exception {
+                        if (scanStatus.isComplete() && (riskGate == null || !riskGate.isTripped())) {
+                            scanCache.store(cacheKey, reportFiles, saveSession ? fileName : "");
+                        }
+                        return null;
+                    }
+                }, stored.toArray(new TaskGraph.Task[stored.size()]));
+            }
+        }
+
+        List<TaskGraph.Task> shutdowns = new ArrayList<TaskGraph.Task>();
+        if (shutdownZAP) {
+            for (final ZapInstance zap : instances) {
+                shutdowns.add(graph.addFinally("shut down " + zap, new Callable<Void>() {
+                    public Void call() throws Exception {
+                        shutdown(zap);
+                        return null;
+                    }
+                }, sessions.get(zap), export));
+            }
+        } else {
+            getLog().info("No shutdown of ZAP");
+            releaseSharedZap(false);
+        }
+
+        Map<TaskGraph.Task, Throwable> failures = graph.run();
+        List<TaskGraph.Task> fatal = new ArrayList<TaskGraph.Task>();
+        for (Map.Entry<TaskGraph.Task, Throwable> failure : failures.entrySet()) {
+            getLog().error("Unable to " + failure.getKey() + ": " + failure.getValue().toString());
+            failure.getValue().printStackTrace();
+            // as before, broken reports or a failed shutdown do not fail the build
+            if (failure.getKey() != export && !shutdowns.contains(failure.getKey())) {
+                fatal.add(failure.getKey());
+            }
+        }
+        if (!fatal.isEmpty()) {
+            throw new MojoExecutionException("Unable to " + fatal, failures.get(fatal.get(0)));
+        }
     }
 
-    private void writeXml(String filename, JSON json) throws IOException {
-        String fullFileName = filename + ".xml";
-        XMLSerializer serializer = new XMLSerializer();
-        serializer.setArrayName("zap-report");
-        serializer.setElementName("alerts");
-        String xml = serializer.write(json);
-        FileUtils.writeStringToFile(new File(fullFileName), xml);
+    /**
+     * Finish the harvest or fetch the alerts, close the reports and save the fingerprints
+     *
+     * @param targets the urls of the sites
+     * @param harvesters the harvesters of the alerts, null if the alerts are fetched now
+     * @param reports the open reports, the finished reports are removed
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void exportAlerts(List<String> targets, List<AlertHarvester> harvesters, List<AlertReport> reports)
+            throws IOException, InterruptedException {
+        if (harvesters != null) {
+            long start = System.currentTimeMillis();
+            int harvested = 0;
+            for (AlertHarvester harvester : harvesters) {
+                harvested += harvester.finish();
+            }
+            getLog().info("Harvested " + harvested + " alerts during the scan, the last of them in "
+                    + (System.currentTimeMillis() - start) + " ms after it");
+        } else {
+            fetchAlerts(reports.get(0), targetReports(reports), targets);
+        }
+        while (!reports.isEmpty()) {
+            finishAlertReport(reports.remove(0));
+        }
+        if (fingerprintStore != null) {
+            fingerprintStore.save();
+        }
     }
 
-    private void writeJson(String filename, JSON json) throws IOException {
-        String fullFileName = filename + ".json";
-        FileUtils.writeStringToFile(new File(fullFileName), json.toString());
+    /**
+     * Shut a ZAProxy down, or start a new session on it if it is shared with modules still to come
+     *
+     * @param zap the ZAProxy
+     * @throws Exception
+     */
+    private void shutdown(ZapInstance zap) throws Exception {
+        SharedZap shared = shareZap ? SharedZap.get(zapProxyHost, zap.getPort()) : null;
+        if (shared != null && !shared.release()) {
+            File session = File.createTempFile("ZAP", null);
+            getLog().info("Keep the " + shared + " running for the next modules, new session ["
+                    + session.getPath() + "]");
+            zap.getClient().core.newSession(session.getPath());
+            return;
+        }
+        getLog().info("Shutdown " + zap);
+        zap.getClient().core.shutdown();
+        if (shared != null) {
+            shared.stopped();
+        }
     }
 
+    /**
+     * Hand the shared ZAProxy instances back when this execution does not shut them down itself, so the last
+     * process-zap execution of the build still finds it is the last one
+     *
+     * @param shutdownLast whether to shut a shared ZAProxy down if this was the last execution to use it
+     */
+    private void releaseSharedZap(boolean shutdownLast) {
+        if (!shareZap) {
+            return;
+        }
+        for (int i = 0; i < Math.max(1, zapInstances); i++) {
+            SharedZap shared = SharedZap.get(zapProxyHost, zapProxyPort + i);
+            if (shared != null && shared.release()) {
+                if (shutdownLast) {
+                    getLog().info("Shutdown the " + shared);
+                    shared.shutdown();
+                } else {
+                    getLog().info("The " + shared + " keeps running, shutdownZAP is off");
+                }
+            }
+        }
+    }
+
+    /**
+     * Name a session file after the ZAProxy it belongs to, when there are several of them
+     *
+     * @param fileName the common file name
+     * @param zap the ZAProxy
+     * @return the file name of the ZAProxy
+     */
+    private String instanceFileName(String fileName, ZapInstance zap) {
+        return (instances.size() == 1) ? fileName : fileName + "-zap" + zap.getPort();
+    }
+
+    protected ClientApi getZapClient() {
+        return getZapClient(zapProxyPort);
+    }
+
+    protected ClientApi getZapClient(int port) {
+        return new ClientApi(zapProxyHost, port);
+    }
+
+
+    /**
+     * The report files of all alerts or of the alerts of one site, open while the alerts are written
+     */
+    private static class AlertReport implements AlertWriter {
+
+        private final String filename;
+
+        private final String baseUrl;
+
+        private final long start = System.currentTimeMillis();
+
+        private final List<File> files = new ArrayList<File>();
+
+        private final CompositeAlertWriter writers = new CompositeAlertWriter();
+
+        private BaselineDiff diff;
+
+        private int count;
+
+        AlertReport(String filename, String baseUrl) {
+            this.filename = filename;
+            this.baseUrl = baseUrl;
+        }
+
+        public synchronized void write(Alert alert) throws IOException {
+            writers.write(alert);
+            count++;
+        }
+
+        public void close() throws IOException {
+            writers.close();
+        }
+    }
 }
@@ -0,0 +1,94 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Opens the report files, for writing and to read the alerts of earlier reports.
+ */
+public final class ReportFiles {
+
+    /** Suffix of compressed reports */
+    public static final String GZIP_SUFFIX = ".gz";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ReportFiles() {
+    }
+
+    /**
+     * Open a report file for writing through a file channel, creating the report directory if needed
+     *
+     * @param fullFileName the name of the report file
+     * @param compress true to gzip the report, ".gz" is appended to the file name
+     * @return the buffered stream of the file
+     * @throws IOException
+     */
+    public static OutputStream open(String fullFileName, boolean compress) throws IOException {
+        File file = new File(compress ? fullFileName + GZIP_SUFFIX : fullFileName);
+        if (file.getParentFile() != null) {
+            FileUtils.forceMkdir(file.getParentFile());
+        }
+
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        OutputStream out = Channels.newOutputStream(channel);
+        if (compress) {
+            try {
+                // the deflater hands its output to the channel in blocks of BUFFER_SIZE
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            } catch (IOException e) {
+                // the header is written right away
+                out.close();
+                throw e;
+            }
+        }
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    /**
+     * Open an XML or JSON report of alerts for reading, uncompressing it if its name ends with ".gz"
+     *
+     * @param file the report
+     * @return the alerts of the report, to be closed by the caller
+     * @throws IOException
+     */
+    public static AlertSource openAlerts(File file) throws IOException {
+        String name = file.getName();
+        InputStream in = new FileInputStream(file);
+        try {
+            if (name.endsWith(GZIP_SUFFIX)) {
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+                name = name.substring(0, name.length() - GZIP_SUFFIX.length());
+            }
+            in = new BufferedInputStream(in, BUFFER_SIZE);
+            return name.endsWith(".xml") ? new XmlAlertReader(in) : new AlertReader(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+}
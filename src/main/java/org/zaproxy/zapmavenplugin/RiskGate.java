@@ -0,0 +1,101 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts the alerts at or above a risk, to fail the build on them.
+ *
+ * Placed among the report writers it sees every reported alert; the first alerts over the threshold are kept as
+ * evidence.
+ */
+public class RiskGate implements AlertWriter {
+
+    /** The risks of ZAP, lowest first */
+    private static final String[] RISKS = { "Informational", "Low", "Medium", "High" };
+
+    private static final int MAX_EVIDENCE = 100;
+
+    private final String threshold;
+
+    private final int thresholdLevel;
+
+    private final List<Alert> evidence = new ArrayList<Alert>();
+
+    private int count;
+
+    /**
+     * @param threshold the lowest risk to fail on, one of Informational, Low, Medium or High
+     * @throws IllegalArgumentException if the risk is unknown
+     */
+    public RiskGate(String threshold) {
+        this.thresholdLevel = level(threshold);
+        if (thresholdLevel < 0) {
+            throw new IllegalArgumentException("Unknown risk [" + threshold
+                    + "], use one of Informational, Low, Medium or High");
+        }
+        this.threshold = RISKS[thresholdLevel];
+    }
+
+    public synchronized void write(Alert alert) {
+        if (level(alert.getRisk()) >= thresholdLevel) {
+            count++;
+            if (evidence.size() < MAX_EVIDENCE) {
+                evidence.add(alert);
+            }
+        }
+    }
+
+    public void close() {
+    }
+
+    /**
+     * @return true if an alert at or above the threshold was seen
+     */
+    public synchronized boolean isTripped() {
+        return count > 0;
+    }
+
+    /**
+     * @return the number of alerts at or above the threshold
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the first alerts at or above the threshold
+     */
+    public synchronized List<Alert> getEvidence() {
+        return new ArrayList<Alert>(evidence);
+    }
+
+    public String getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param risk a risk as reported by ZAP
+     * @return the rank of the risk, -1 if it is unknown
+     */
+    static int level(String risk) {
+        for (int i = 0; i < RISKS.length; i++) {
+            if (RISKS[i].equalsIgnoreCase(risk)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,78 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+/**
+ * Splits a time budget for spidering and scanning all sites between the sites and their phases.
+ *
+ * Every site gets an equal share of the time left when it starts, counting the sites scanned at the same time as
+ * one. Of its share the spider gets spiderPercent, the active scan gets the rest plus whatever the spider did not
+ * use.
+ */
+public class ScanBudget {
+
+    private final long deadline;
+
+    private final int spiderPercent;
+
+    private final int parallel;
+
+    private int pendingTargets;
+
+    /**
+     * @param maxMillis the time for all sites, 0 for no limit
+     * @param spiderPercent the share of the time of a site for its spider
+     * @param targets the number of sites
+     * @param parallel the number of sites scanned at the same time
+     */
+    public ScanBudget(long maxMillis, int spiderPercent, int targets, int parallel) {
+        this.deadline = (maxMillis > 0) ? System.currentTimeMillis() + maxMillis : Long.MAX_VALUE;
+        this.spiderPercent = Math.max(0, Math.min(100, spiderPercent));
+        this.pendingTargets = Math.max(1, targets);
+        this.parallel = Math.max(1, parallel);
+    }
+
+    /**
+     * @return true if there is a limit at all
+     */
+    public boolean isLimited() {
+        return deadline != Long.MAX_VALUE;
+    }
+
+    /**
+     * Hand out the time of the next site
+     *
+     * @return the time the site must be done, Long.MAX_VALUE for no limit
+     */
+    public synchronized long startTarget() {
+        if (!isLimited()) {
+            return Long.MAX_VALUE;
+        }
+        long remaining = Math.max(0, deadline - System.currentTimeMillis());
+        int sharing = Math.max(1, (pendingTargets + parallel - 1) / parallel);
+        pendingTargets = Math.max(1, pendingTargets - 1);
+        return System.currentTimeMillis() + remaining / sharing;
+    }
+
+    /**
+     * @param targetDeadline the time the site must be done
+     * @return the time the spider of the site must be done
+     */
+    public long spiderDeadline(long targetDeadline) {
+        if (targetDeadline == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        long now = System.currentTimeMillis();
+        return now + Math.max(0, targetDeadline - now) * spiderPercent / 100;
+    }
+}
@@ -0,0 +1,217 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Timings and throughput of a build, written as JSON and in the Prometheus text format so they can be charted over
+ * many builds.
+ */
+public class ScanMetrics {
+
+    /** Startup times measured by start-zap, by port, for process-zap running later in the same build */
+    private static final Map<Integer, Long> STARTUP_MILLIS = new LinkedHashMap<Integer, Long>();
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final List<Sample> samples = new ArrayList<Sample>();
+
+    /**
+     * Remember how long a ZAProxy took to answer after it was started
+     *
+     * @param port the port of the ZAProxy
+     * @param millis the startup time
+     */
+    public static void recordStartup(int port, long millis) {
+        synchronized (STARTUP_MILLIS) {
+            STARTUP_MILLIS.put(Integer.valueOf(port), Long.valueOf(millis));
+        }
+    }
+
+    /**
+     * Add the startup time of a ZAProxy, if start-zap measured one in this build
+     *
+     * @param port the port of the ZAProxy
+     */
+    public void addStartup(int port) {
+        Long millis;
+        synchronized (STARTUP_MILLIS) {
+            millis = STARTUP_MILLIS.get(Integer.valueOf(port));
+        }
+        if (millis != null) {
+            record("zap_startup_seconds", "port", String.valueOf(port), millis.longValue() / 1000.0);
+        }
+    }
+
+    /**
+     * Record a value
+     *
+     * @param name the metric name, in Prometheus style, e.g. "zap_spider_duration_seconds"
+     * @param label the label name, e.g. "target", null for none
+     * @param labelValue the label value
+     * @param value the value
+     */
+    public void record(String name, String label, String labelValue, double value) {
+        Map<String, String> labels = new LinkedHashMap<String, String>();
+        if (label != null) {
+            labels.put(label, labelValue);
+        }
+        record(name, labels, value);
+    }
+
+    /**
+     * Record a value with several labels
+     *
+     * @param name the metric name, in Prometheus style, e.g. "zap_report_bytes"
+     * @param labels the label values by label name, in the order they are written, empty for none
+     * @param value the value
+     */
+    public synchronized void record(String name, Map<String, String> labels, double value) {
+        samples.add(new Sample(name, labels, value));
+    }
+
+    /**
+     * Record a value unless a value of the same metric and labels was recorded before, for metrics whose cause can
+     * happen several times in a build
+     *
+     * @param name the metric name, in Prometheus style, e.g. "zap_scan_incomplete"
+     * @param label the label name, e.g. "target", null for none
+     * @param labelValue the label value
+     * @param value the value
+     */
+    public synchronized void recordOnce(String name, String label, String labelValue, double value) {
+        Map<String, String> labels = new LinkedHashMap<String, String>();
+        if (label != null) {
+            labels.put(label, labelValue);
+        }
+        for (Sample sample : samples) {
+            if (sample.name.equals(name) && sample.labels.equals(labels)) {
+                return;
+            }
+        }
+        samples.add(new Sample(name, labels, value));
+    }
+
+    /**
+     * Record a duration and the rate of something counted during it
+     *
+     * @param prefix the metric name prefix, e.g. "zap_spider"
+     * @param unit what was counted, e.g. "urls"
+     * @param target the target URL
+     * @param millis the duration
+     * @param count the count
+     */
+    public void recordRate(String prefix, String unit, String target, long millis, long count) {
+        record(prefix + "_duration_seconds", "target", target, millis / 1000.0);
+        record(prefix + "_" + unit, "target", target, count);
+        record(prefix + "_" + unit + "_per_second", "target", target, (millis > 0) ? count * 1000.0 / millis : 0);
+    }
+
+    /**
+     * Write the metrics as zap-metrics.json and zap-metrics.prom
+     *
+     * @param directory the directory to write to
+     * @throws IOException
+     */
+    public synchronized void write(File directory) throws IOException {
+        writeJson(new File(directory, "zap-metrics.json"));
+        writePrometheus(new File(directory, "zap-metrics.prom"));
+    }
+
+    private void writeJson(File file) throws IOException {
+        JsonGenerator json = JSON_FACTORY.createJsonGenerator(FileUtils.openOutputStream(file), JsonEncoding.UTF8);
+        try {
+            json.writeStartObject();
+            json.writeArrayFieldStart("metrics");
+            for (Sample sample : samples) {
+                json.writeStartObject();
+                json.writeStringField("name", sample.name);
+                for (Map.Entry<String, String> label : sample.labels.entrySet()) {
+                    json.writeStringField(label.getKey(), label.getValue());
+                }
+                json.writeNumberField("value", sample.value);
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        } finally {
+            json.close();
+        }
+    }
+
+    private void writePrometheus(File file) throws IOException {
+        // the text format wants all samples of a metric together, after its TYPE line
+        Map<String, List<Sample>> byName = new LinkedHashMap<String, List<Sample>>();
+        for (Sample sample : samples) {
+            List<Sample> named = byName.get(sample.name);
+            if (named == null) {
+                named = new ArrayList<Sample>();
+                byName.put(sample.name, named);
+            }
+            named.add(sample);
+        }
+
+        Writer out = new OutputStreamWriter(FileUtils.openOutputStream(file), "UTF-8");
+        try {
+            for (Map.Entry<String, List<Sample>> named : byName.entrySet()) {
+                out.write("# TYPE " + named.getKey() + " gauge\n");
+                for (Sample sample : named.getValue()) {
+                    out.write(sample.name);
+                    String separator = "{";
+                    for (Map.Entry<String, String> label : sample.labels.entrySet()) {
+                        out.write(separator + label.getKey() + "=\"" + escapeLabel(label.getValue()) + "\"");
+                        separator = ",";
+                    }
+                    if (!sample.labels.isEmpty()) {
+                        out.write("}");
+                    }
+                    out.write(" " + sample.value + "\n");
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * One recorded value
+     */
+    private static class Sample {
+        private final String name;
+        private final Map<String, String> labels;
+        private final double value;
+
+        Sample(String name, Map<String, String> labels, double value) {
+            this.name = name;
+            this.labels = labels;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.IOException;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Follows the progress of one spider or active scan until it is finished.
+ *
+ * The status is polled often while the scan moves fast and less often while it is slow, so a finished scan is noticed
+ * quickly without flooding ZAP with status requests.
+ */
+public class ScanProgressTracker {
+
+    private static final long MIN_INTERVAL = 100;
+
+    private static final long MAX_INTERVAL = 5000;
+
+    /** Poll about ten times over the estimated remaining time */
+    private static final int POLLS_PER_ETA = 10;
+
+    private final ZapApi zapApi;
+
+    private final String component;
+
+    private final String scanId;
+
+    private final Log log;
+
+    private RiskGate riskGate;
+
+    private boolean stopped;
+
+    /**
+     * @param zapApi the API to poll
+     * @param component "spider" or "ascan"
+     * @param scanId the id of the scan to follow, null for ZAP versions without scan ids
+     * @param log the log for progress messages
+     */
+    public ScanProgressTracker(ZapApi zapApi, String component, String scanId, Log log) {
+        this.zapApi = zapApi;
+        this.component = component;
+        this.scanId = scanId;
+        this.log = log;
+    }
+
+    /**
+     * Also stop the scan as soon as the gate sees an alert over its threshold
+     *
+     * @param riskGate the gate, null for none
+     */
+    public void stopOn(RiskGate riskGate) {
+        this.riskGate = riskGate;
+    }
+
+    /**
+     * Get the progress of the scan
+     *
+     * @return the progress in percent
+     * @throws IOException
+     */
+    public int progress() throws IOException {
+        String status = (scanId == null) ? zapApi.view(component, "status")
+                : zapApi.view(component, "status", "scanId", scanId);
+        return Integer.parseInt(status);
+    }
+
+    /**
+     * Wait until the scan reached 100 percent
+     *
+     * @return the duration of the scan in milliseconds
+     * @throws IOException
+     * @throws InterruptedException if the build is interrupted, the scan keeps running in ZAP and the interrupt flag
+     *             of the thread stays set
+     */
+    public long waitForCompletion() throws IOException, InterruptedException {
+        return waitForCompletion(Long.MAX_VALUE);
+    }
+
+    /**
+     * Wait until the scan reached 100 percent, or stop it when the deadline has passed
+     *
+     * @param deadline the time the scan must be done, Long.MAX_VALUE for no limit
+     * @return the duration of the scan in milliseconds
+     * @throws IOException
+     * @throws InterruptedException if the build is interrupted, the scan keeps running in ZAP and the interrupt flag
+     *             of the thread stays set
+     */
+    public long waitForCompletion(long deadline) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        long interval = MIN_INTERVAL;
+        int lastProgress = -1;
+
+        int progress;
+        while ((progress = progress()) < 100) {
+            long now = System.currentTimeMillis();
+            if (now >= deadline) {
+                stop(name() + " is out of time at " + progress + "%, stopping it");
+                return now - start;
+            }
+            if (riskGate != null && riskGate.isTripped()) {
+                stop(name() + " found an alert at or above risk " + riskGate.getThreshold() + " at " + progress
+                        + "%, stopping it");
+                return now - start;
+            }
+            long elapsed = now - start;
+            if (progress > lastProgress) {
+                if (progress > 0) {
+                    long eta = elapsed * (100 - progress) / progress;
+                    log.info(name() + " progress " + progress + "% (ETA " + formatDuration(eta) + ")");
+                    interval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, eta / POLLS_PER_ETA));
+                }
+                lastProgress = progress;
+            } else {
+                interval = Math.min(MAX_INTERVAL, interval * 2);
+            }
+            sleep(Math.max(1, Math.min(interval, deadline - now)));
+        }
+
+        long duration = System.currentTimeMillis() - start;
+        log.info(name() + " finished in " + formatDuration(duration));
+        return duration;
+    }
+
+    /**
+     * @return true if the scan was stopped at its deadline or by the risk gate before it finished
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Wait until the next poll
+     *
+     * @param millis the time to wait
+     * @throws InterruptedException if the thread is interrupted, with its interrupt flag set again
+     */
+    protected void sleep(long millis) throws InterruptedException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private void stop(String message) throws IOException {
+        log.warn(message);
+        if (scanId == null) {
+            zapApi.action(component, "stop");
+        } else {
+            zapApi.action(component, "stop", "scanId", scanId);
+        }
+        stopped = true;
+    }
+
+    private String name() {
+        String name = "spider".equals(component) ? "Spider" : "Active scan";
+        return (scanId == null) ? name : name + " " + scanId;
+    }
+
+    static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        if (seconds < 60) {
+            return seconds + "s";
+        }
+        return (seconds / 60) + "m " + (seconds % 60) + "s";
+    }
+}
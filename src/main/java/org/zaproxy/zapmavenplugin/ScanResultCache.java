@@ -0,0 +1,209 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Keeps the reports of earlier scans, keyed by a digest of the deployed artifacts and the scan settings.
+ *
+ * A build which deploys the same artifacts with the same settings as an earlier one gets the reports of that build
+ * back instead of scanning again. Every entry is a directory named after its key, holding the reports and the name
+ * of the saved session. The least recently used entries are evicted when there are more than maxEntries of them or
+ * they take more than maxBytes together.
+ */
+public class ScanResultCache {
+
+    private static final String REPORTS = "reports";
+
+    private static final String SESSION_FILE = "session";
+
+    private static final String ENCODING = "UTF-8";
+
+    private final File directory;
+
+    private final int maxEntries;
+
+    private final long maxBytes;
+
+    private final Log log;
+
+    /**
+     * @param directory the directory of the cache, shared by all builds of the machine
+     * @param maxEntries the maximum number of entries, 0 for no limit
+     * @param maxBytes the maximum size of all entries together, 0 for no limit
+     * @param log the log
+     */
+    public ScanResultCache(File directory, int maxEntries, long maxBytes, Log log) {
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.log = log;
+    }
+
+    /**
+     * Compute the key of a scan
+     *
+     * @param inputs the artifacts under test, directories are hashed with all files below them
+     * @param settings the settings which change the outcome of the scan
+     * @return the hex encoded SHA-256 of the names and contents of the inputs and of the settings
+     * @throws IOException if an input does not exist or cannot be read
+     */
+    public static String digest(Collection<File> inputs, String settings) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            for (File input : inputs) {
+                if (!input.exists()) {
+                    throw new IOException("The input " + input + " of the scan cache does not exist");
+                }
+                for (File file : files(input)) {
+                    digest.update(relativeName(input, file).getBytes(ENCODING));
+                    digest.update((byte) 0);
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            digest.update(buffer, 0, read);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+            digest.update(settings.getBytes(ENCODING));
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Copy the reports of a cached scan into the reports directory and mark the entry as used
+     *
+     * @param key the key of the scan
+     * @param reportsDirectory the directory to copy the reports to
+     * @return the name of the session saved by the cached scan, empty if it saved none,
+     *         or null if the scan is not cached
+     * @throws IOException
+     */
+    public synchronized String restore(String key, File reportsDirectory) throws IOException {
+        File entry = new File(directory, key);
+        File reports = new File(entry, REPORTS);
+        if (!reports.isDirectory()) {
+            return null;
+        }
+        for (File report : reports.listFiles()) {
+            FileUtils.copyFileToDirectory(report, reportsDirectory);
+        }
+        entry.setLastModified(System.currentTimeMillis());
+
+        File session = new File(entry, SESSION_FILE);
+        return session.exists() ? FileUtils.readFileToString(session, ENCODING) : "";
+    }
+
+    /**
+     * Cache the reports of a scan, then evict the least recently used entries over the limits
+     *
+     * @param key the key of the scan
+     * @param reports the report files
+     * @param session the name of the saved session, empty if none was saved
+     * @throws IOException
+     */
+    public synchronized void store(String key, Collection<File> reports, String session) throws IOException {
+        // the entry only appears under its key when it is complete
+        File partial = new File(directory, key + ".tmp");
+        FileUtils.deleteQuietly(partial);
+        File partialReports = new File(partial, REPORTS);
+        FileUtils.forceMkdir(partialReports);
+        for (File report : reports) {
+            FileUtils.copyFileToDirectory(report, partialReports);
+        }
+        FileUtils.writeStringToFile(new File(partial, SESSION_FILE), session, ENCODING);
+
+        File entry = new File(directory, key);
+        FileUtils.deleteQuietly(entry);
+        if (!partial.renameTo(entry)) {
+            throw new IOException("Unable to move " + partial + " to " + entry);
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        evict();
+    }
+
+    /**
+     * Delete the least recently used entries until the cache is within its limits
+     */
+    private void evict() {
+        List<File> entries = new ArrayList<File>();
+        long bytes = 0;
+        for (File entry : directory.listFiles()) {
+            if (entry.isDirectory() && !entry.getName().endsWith(".tmp")) {
+                entries.add(entry);
+                bytes += FileUtils.sizeOfDirectory(entry);
+            }
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long lastUsedA = a.lastModified();
+                long lastUsedB = b.lastModified();
+                return (lastUsedA < lastUsedB) ? -1 : ((lastUsedA == lastUsedB) ? 0 : 1);
+            }
+        });
+
+        // always keep the most recent entry, even if it alone is over the limits
+        while (entries.size() > 1 && ((maxEntries > 0 && entries.size() > maxEntries)
+                || (maxBytes > 0 && bytes > maxBytes))) {
+            File eldest = entries.remove(0);
+            bytes -= FileUtils.sizeOfDirectory(eldest);
+            log.info("Evict the scan cache entry " + eldest.getName());
+            FileUtils.deleteQuietly(eldest);
+        }
+    }
+
+    /**
+     * @return the file itself or all files below the directory, in a stable order
+     */
+    private static List<File> files(File input) {
+        if (!input.isDirectory()) {
+            return Collections.singletonList(input);
+        }
+        List<File> files = new ArrayList<File>(FileUtils.listFiles(input, null, true));
+        Collections.sort(files);
+        return files;
+    }
+
+    private static String relativeName(File input, File file) {
+        if (file.equals(input)) {
+            return file.getName();
+        }
+        return file.getPath().substring(input.getPath().length() + 1).replace(File.separatorChar, '/');
+    }
+}
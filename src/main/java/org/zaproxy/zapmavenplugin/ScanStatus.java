@@ -0,0 +1,57 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Whether the scan behind a report covered everything, read by the report writers when they close.
+ */
+public class ScanStatus {
+
+    private final List<String> reasons = new ArrayList<String>();
+
+    /**
+     * Mark the scan as incomplete
+     *
+     * @param reason what was left out, e.g. "active scan of http://localhost/ stopped at 40%"
+     */
+    public synchronized void incomplete(String reason) {
+        reasons.add(reason);
+    }
+
+    /**
+     * @return true if nothing was left out
+     */
+    public synchronized boolean isComplete() {
+        return reasons.isEmpty();
+    }
+
+    /**
+     * @return what was left out, or null if the scan is complete
+     */
+    public synchronized String getIncompleteReason() {
+        if (reasons.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String reason : reasons) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(reason);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,179 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.util.HashMap;
+import java.util.Map;
+
+import org.zaproxy.clientapi.core.ClientApi;
+
+/**
+ * A ZAProxy started by start-zap and shared by all modules of a reactor build.
+ *
+ * Maven runs the modules of a build in one JVM with one class loader for the plugin, so the modules find the
+ * ZAProxy of the modules before them here. Every process-zap execution of the build is counted, each of them hands
+ * ZAProxy back when it ends, also when it skips the scan or keeps ZAProxy running, and the last one shuts it down.
+ * If the build ends without that, e.g. because a module failed, a shutdown hook stops ZAProxy instead.
+ */
+public final class SharedZap {
+
+    private static final Map<String, SharedZap> DAEMONS = new HashMap<String, SharedZap>();
+
+    private final String key;
+
+    private final Process process;
+
+    private final ClientApi client;
+
+    private final int users;
+
+    private int holders;
+
+    private int released;
+
+    private boolean stopped;
+
+    private SharedZap(String key, Process process, ClientApi client, int users) {
+        this.key = key;
+        this.process = process;
+        this.client = client;
+        this.users = users;
+    }
+
+    /**
+     * Find the shared ZAProxy on a port
+     *
+     * @param host the host of the ZAProxy
+     * @param port the port of the ZAProxy
+     * @return the shared ZAProxy, or null if no module of this build started one on that port or it is gone
+     */
+    public static synchronized SharedZap get(String host, int port) {
+        SharedZap zap = DAEMONS.get(key(host, port));
+        if (zap != null && !zap.isRunning()) {
+            DAEMONS.remove(zap.key);
+            return null;
+        }
+        return zap;
+    }
+
+    /**
+     * Share a ZAProxy just started
+     *
+     * @param host the host of the ZAProxy
+     * @param port the port of the ZAProxy
+     * @param process the ZAProxy process
+     * @param client the client to shut ZAProxy down with
+     * @param users the number of process-zap executions of the build
+     * @return the shared ZAProxy, held by the module which started it
+     */
+    public static synchronized SharedZap register(String host, int port, Process process, ClientApi client,
+            int users) {
+        final SharedZap zap = new SharedZap(key(host, port), process, client, Math.max(1, users));
+        zap.holders = 1;
+        DAEMONS.put(zap.key, zap);
+        Runtime.getRuntime().addShutdownHook(new Thread("Shutdown shared ZAProxy " + zap.key) {
+            public void run() {
+                zap.stop();
+            }
+        });
+        return zap;
+    }
+
+    /**
+     * Use the shared ZAProxy for one more module
+     */
+    public synchronized void attach() {
+        holders++;
+    }
+
+    /**
+     * Hand the shared ZAProxy back after a process-zap execution is done with it
+     *
+     * @return true if this was the last process-zap execution of the build and ZAProxy should be shut down now
+     */
+    public synchronized boolean release() {
+        holders = Math.max(0, holders - 1);
+        released++;
+        return released >= users;
+    }
+
+    /**
+     * @return the number of modules using the shared ZAProxy at the moment
+     */
+    public synchronized int getHolders() {
+        return holders;
+    }
+
+    /**
+     * Forget the shared ZAProxy after it was shut down
+     */
+    public void stopped() {
+        synchronized (SharedZap.class) {
+            DAEMONS.remove(key);
+        }
+        synchronized (this) {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Shut ZAProxy down and forget it, for a module which has no client of its own to do that
+     */
+    public void shutdown() {
+        stop();
+        stopped();
+    }
+
+    public String toString() {
+        return "shared ZAProxy " + key;
+    }
+
+    /**
+     * Shut ZAProxy down unless that happened already
+     */
+    private void stop() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+        }
+        try {
+            client.core.shutdown();
+        } catch (Exception e) {
+            // the process is destroyed below anyway
+        }
+        if (process != null) {
+            process.destroy();
+        }
+    }
+
+    private synchronized boolean isRunning() {
+        if (stopped) {
+            return false;
+        }
+        if (process == null) {
+            return true;
+        }
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    private static String key(String host, int port) {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,135 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Writes the alerts to another writer in {@link AlertMerger#ORDER}, without duplicates.
+ *
+ * At most a fixed number of alerts is held in memory, the alerts beyond are sorted in runs spilled to temporary
+ * files, which are merged when the writer is closed.
+ */
+public class SortingAlertWriter implements AlertWriter {
+
+    private final AlertWriter out;
+
+    private final int maxBuffered;
+
+    private final List<Alert> buffer = new ArrayList<Alert>();
+
+    private final List<File> runs = new ArrayList<File>();
+
+    private final AlertMerger merger = new AlertMerger();
+
+    /**
+     * @param out the writer of the sorted alerts
+     * @param maxBuffered the number of alerts held in memory
+     */
+    public SortingAlertWriter(AlertWriter out, int maxBuffered) {
+        this.out = out;
+        this.maxBuffered = Math.max(1, maxBuffered);
+    }
+
+    public void write(Alert alert) throws IOException {
+        buffer.add(alert);
+        if (buffer.size() >= maxBuffered) {
+            spill();
+        }
+    }
+
+    /**
+     * Merge the runs and the alerts in memory into the other writer and close it
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        try {
+            Collections.sort(buffer, AlertMerger.ORDER);
+            List<AlertSource> sources = new ArrayList<AlertSource>();
+            try {
+                for (File run : runs) {
+                    sources.add(ReportFiles.openAlerts(run));
+                }
+            } catch (IOException e) {
+                for (AlertSource source : sources) {
+                    IOUtils.closeQuietly(source);
+                }
+                throw e;
+            }
+            sources.add(new BufferSource(buffer.iterator()));
+            merger.merge(sources, out);
+        } finally {
+            try {
+                out.close();
+            } finally {
+                for (File run : runs) {
+                    run.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the merger, with the number of alerts written and of duplicates left out
+     */
+    public AlertMerger getMerger() {
+        return merger;
+    }
+
+    private void spill() throws IOException {
+        Collections.sort(buffer, AlertMerger.ORDER);
+        File run = File.createTempFile("zap-alerts", ".json");
+        runs.add(run);
+        JsonAlertWriter writer = new JsonAlertWriter(new BufferedOutputStream(new FileOutputStream(run), 64 * 1024));
+        try {
+            for (Alert alert : buffer) {
+                writer.write(alert);
+            }
+        } finally {
+            writer.close();
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The sorted alerts still in memory
+     */
+    private static class BufferSource implements AlertSource {
+        private final Iterator<Alert> alerts;
+
+        BufferSource(Iterator<Alert> alerts) {
+            this.alerts = alerts;
+        }
+
+        public Alert next() {
+            return alerts.hasNext() ? alerts.next() : null;
+        }
+
+        public String getIncompleteReason() {
+            return null;
+        }
+
+        public void close() {
+        }
+    }
+}
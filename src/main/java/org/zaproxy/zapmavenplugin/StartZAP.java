@@ -16,12 +16,17 @@ package org.zaproxy.zapmavenplugin;
  * limitations under the License.
  */
 import java.io.File;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
 
+import org.apache.commons.io.FilenameUtils;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
 import org.zaproxy.clientapi.core.ClientApi;
 import org.zaproxy.clientapi.core.ClientApiException;
 
@@ -35,6 +40,17 @@ import org.zaproxy.clientapi.core.ClientApiException;
 public class StartZAP
     extends AbstractMojo
 {
+    private static final long FIRST_PROBE_INTERVAL = 50;
+
+    private static final long MAX_PROBE_INTERVAL = 1000;
+
+    /** Milliseconds a probe waits for ZAProxy to answer, it is probed again after that */
+    private static final int PROBE_TIMEOUT = 10000;
+
+    private static final String PLUGIN_ARTIFACT_ID = "zap-maven-plugin";
+
+    private static final String PROCESS_GOAL = "process-zap";
+
     /**
      * Location of the ZAProxy program.
      * @parameter
@@ -63,11 +79,57 @@ public class StartZAP
     private boolean newSession;
 
     /**
-     * Sleep to wait to start ZAProxy
-     * @parameter default-value="4000"
+     * Maximum time in milliseconds to wait for ZAProxy to answer on its API after starting it. If it does not answer
+     * by then, the ZAProxy processes started are stopped and the build fails.
+     * @parameter default-value="60000"
      */
     private int zapSleep;
 
+    /**
+     * Number of ZAProxy instances to start, on zapProxyPort and the ports following it
+     * @parameter default-value="1"
+     */
+    private int zapInstances;
+
+    /**
+     * File to write all output of ZAProxy to. With several instances the port is added to the name.
+     * @parameter
+     */
+    private String zapLogFile;
+
+    /**
+     * Lowest level of ZAProxy output shown in the build log: TRACE, DEBUG, INFO, WARN, ERROR, FATAL or OFF
+     * @parameter default-value="WARN"
+     */
+    private String zapLogLevel;
+
+    /**
+     * Most lines of ZAProxy output shown in the build log per second, 0 for no limit
+     * @parameter default-value="20"
+     */
+    private int zapLogRateLimit;
+
+    /**
+     * Number of last lines of ZAProxy output shown when ZAProxy fails to start
+     * @parameter default-value="100"
+     */
+    private int zapLogTailLines;
+
+    /**
+     * Start ZAProxy only once for all modules of a reactor build. The modules after the first one use the running
+     * ZAProxy, process-zap opens a new session for the next module instead of shutting it down, and the last
+     * process-zap execution of the build shuts it down.
+     * @parameter default-value="false"
+     */
+    private boolean shareZap;
+
+    /**
+     * All modules of the build
+     * @parameter expression="${reactorProjects}"
+     * @readonly
+     */
+    private List<MavenProject> reactorProjects;
+
     /**
      * Set the plugin to skip its execution.
      *
@@ -82,92 +144,240 @@ public class StartZAP
             getLog().info("Skipping zap exection");
             return;
         }
+        if (!ZapOutputPump.isLevel(zapLogLevel)) {
+            throw new MojoExecutionException("Unknown zapLogLevel [" + zapLogLevel + "], use one of TRACE, DEBUG,"
+                    + " INFO, WARN, ERROR, FATAL or OFF");
+        }
+        List<ZapOutputPump> pumps = new ArrayList<ZapOutputPump>();
+        List<Process> started = new ArrayList<Process>();
         try {
+            int instances = Math.max(1, zapInstances);
             if (newSession) {
-                startNewSessionOnRunningClient();
+                for (int i = 0; i < instances; i++) {
+                    startNewSessionOnRunningClient(instanceClient(i));
+                }
             } else {
-                final Process ps = startZap();
-
-                logZapProcess(ps);
-
+                long[] launched = new long[instances];
+                Process[] processes = new Process[instances];
+                for (int i = 0; i < instances; i++) {
+                    int port = zapProxyPort + i;
+                    SharedZap shared = shareZap ? SharedZap.get(zapProxyHost, port) : null;
+                    if (shared != null) {
+                        shared.attach();
+                        getLog().info("Use the " + shared + " of the modules before, now used by "
+                                + shared.getHolders() + " modules");
+                        continue;
+                    }
+                    launched[i] = System.currentTimeMillis();
+                    processes[i] = startZap(instances == 1 ? null : Integer.valueOf(port));
+                    started.add(processes[i]);
+                    pumps.add(pumpOutput(processes[i], port, instances));
+                }
+                for (int i = 0; i < instances; i++) {
+                    if (processes[i] == null) {
+                        continue;
+                    }
+                    waitForZap(getZapApi(zapProxyPort + i), zapProxyPort + i, launched[i], processes[i]);
+                }
+                // shared only once all of them answered, a failed start stops them all
+                for (int i = 0; i < instances; i++) {
+                    if (processes[i] != null && shareZap) {
+                        int users = zapUsers();
+                        SharedZap.register(zapProxyHost, zapProxyPort + i, processes[i], instanceClient(i), users);
+                        getLog().info("ZAProxy on port " + (zapProxyPort + i) + " is shared by the " + users
+                                + " process-zap executions of the build");
+                    }
+                }
             }
-            Thread.sleep(zapSleep);
+        } catch (MojoExecutionException e) {
+            abortStart(pumps, started);
+            throw e;
         } catch(Exception e) {
                 e.printStackTrace();
+                abortStart(pumps, started);
                 throw new MojoExecutionException("Unable to start ZAP [" + zapProgram + "]");
         }
 
     }
 
-    protected Runtime getRuntime() {
-        Runtime runtime = java.lang.Runtime.getRuntime();
-        return runtime;
+    /**
+     * Show the last output of the ZAProxy processes started so far and destroy them, after starting failed
+     *
+     * @param pumps the readers of the output of the processes
+     * @param started the processes
+     */
+    private void abortStart(List<ZapOutputPump> pumps, List<Process> started) {
+        for (ZapOutputPump pump : pumps) {
+            pump.logTail();
+        }
+        for (Process process : started) {
+            process.destroy();
+        }
+        if (!started.isEmpty()) {
+            getLog().info("Stopped the " + started.size() + " ZAProxy processes started");
+        }
     }
 
-    protected ClientApi getZapClient() {
-        return new ClientApi(zapProxyHost, zapProxyPort);
+    /**
+     * Start a process
+     *
+     * @param builder the command, working directory and redirections of the process
+     * @return the process
+     * @throws IOException
+     */
+    protected Process launch(ProcessBuilder builder) throws IOException {
+        return builder.start();
     }
 
-    private void startNewSessionOnRunningClient() throws IOException,
-            ClientApiException {
-        ClientApi zapClient = getZapClient();
-        File tempFile = File.createTempFile("ZAP", null);
-        getLog().info("Create Session with temporary file [" + tempFile.getPath() + "]");
-        zapClient.core.newSession(tempFile.getPath());
+    protected ClientApi getZapClient() {
+        return getZapClient(zapProxyPort);
     }
 
-    private Process startZap() throws IOException {
-        File pf = new File(zapProgram);
-        Runtime runtime = getRuntime();
-        getLog().info("Start ZAProxy [" + zapProgram + "]");
-        getLog().info("Using working directory [" + pf.getParentFile().getPath() + "]");
-        final Process ps = runtime.exec(zapProgram, null, pf.getParentFile());
-        return ps;
+    /**
+     * @param port the port of the ZAProxy
+     * @return the client to poll the ZAProxy with until it answers
+     */
+    protected ZapApi getZapApi(int port) {
+        return new ZapApi(zapProxyHost, port, PROBE_TIMEOUT, PROBE_TIMEOUT, getLog());
     }
 
-    private void logZapProcess(final Process ps) {
-        logNormalOutput(ps);
-
-        logErrorOutput(ps);
+    protected ClientApi getZapClient(int port) {
+        return new ClientApi(zapProxyHost, port);
     }
 
-    private void logErrorOutput(final Process ps) {
-        new Thread() {
-            public void run() {
-                try {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(ps.getErrorStream()));
-                    String line = "";
-                    try {
-                        while((line = reader.readLine()) != null) {
-                            getLog().info(line);
+    /**
+     * Count the process-zap executions of the build, each of them hands the shared ZAProxy back when it ends. Modules
+     * which only start ZAProxy or merge reports do not count.
+     *
+     * @return the number of process-zap executions, at least 1
+     */
+    int zapUsers() {
+        if (reactorProjects == null) {
+            return 1;
+        }
+        int users = 0;
+        for (MavenProject module : reactorProjects) {
+            for (Object plugin : module.getBuildPlugins()) {
+                if (PLUGIN_ARTIFACT_ID.equals(((Plugin) plugin).getArtifactId())) {
+                    for (Object execution : ((Plugin) plugin).getExecutions()) {
+                        if (((PluginExecution) execution).getGoals().contains(PROCESS_GOAL)) {
+                            users++;
                         }
-                    } finally {
-                        reader.close();
                     }
-                } catch(Exception e) {
-                    e.printStackTrace();
                 }
             }
-        }.start();
+        }
+        return Math.max(1, users);
     }
 
-    private void logNormalOutput(final Process ps) {
-        new Thread() {
-            public void run() {
-                try {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(ps.getInputStream()));
-                    String line = "";
-                    try {
-                        while((line = reader.readLine()) != null) {
-                            getLog().info(line);
-                        }
-                    } finally {
-                        reader.close();
-                    }
-                } catch(Exception e) {
-                    e.printStackTrace();
-                }
+    private ClientApi instanceClient(int instance) {
+        return (instance == 0) ? getZapClient() : getZapClient(zapProxyPort + instance);
+    }
+
+    private void startNewSessionOnRunningClient(ClientApi zapClient) throws IOException,
+            ClientApiException {
+        File tempFile = File.createTempFile("ZAP", null);
+        getLog().info("Create Session with temporary file [" + tempFile.getPath() + "]");
+        zapClient.core.newSession(tempFile.getPath());
+    }
+
+    /**
+     * Poll the API of ZAProxy with growing intervals until it answers or zapSleep has passed
+     *
+     * @param zapApi the API of the ZAProxy to wait for
+     * @param port the port of the ZAProxy
+     * @param start the time the ZAProxy was started
+     * @param process the ZAProxy process
+     * @throws InterruptedException
+     * @throws MojoExecutionException if the ZAProxy process failed or did not answer within zapSleep
+     */
+    private void waitForZap(ZapApi zapApi, int port, long start, Process process)
+            throws InterruptedException, MojoExecutionException {
+        long interval = FIRST_PROBE_INTERVAL;
+
+        while (true) {
+            try {
+                zapApi.view("core", "version");
+                long startup = System.currentTimeMillis() - start;
+                getLog().info("ZAProxy answered after " + startup + " ms");
+                ScanMetrics.recordStartup(port, startup);
+                return;
+            } catch (IOException e) {
+                getLog().debug("ZAProxy not ready yet: " + e.toString());
             }
-        }.start();
+
+            Integer exitValue = exitValue(process);
+            if (exitValue != null && exitValue.intValue() != 0) {
+                throw new MojoExecutionException("ZAProxy on port " + port + " exited with " + exitValue);
+            }
+            long remaining = start + zapSleep - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new MojoExecutionException("ZAProxy on port " + port + " did not answer within " + zapSleep
+                        + " ms");
+            }
+            Thread.sleep(Math.min(interval, remaining));
+            interval = Math.min(interval * 2, MAX_PROBE_INTERVAL);
+        }
+    }
+
+    /**
+     * @param process a process
+     * @return the exit value of the process, or null if it is still running
+     */
+    private Integer exitValue(Process process) {
+        try {
+            return Integer.valueOf(process.exitValue());
+        } catch (IllegalThreadStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Start ZAProxy, with stderr merged into stdout
+     *
+     * @param port the port to start ZAProxy on, null to use the port configured in ZAProxy
+     * @return the ZAProxy process
+     * @throws IOException
+     */
+    private Process startZap(Integer port) throws IOException {
+        File pf = new File(zapProgram);
+        // split like Runtime.exec did, so zapProgram may still carry arguments
+        List<String> command = new ArrayList<String>();
+        StringTokenizer tokens = new StringTokenizer(zapProgram);
+        while (tokens.hasMoreTokens()) {
+            command.add(tokens.nextToken());
+        }
+        if (port != null) {
+            command.add("-port");
+            command.add(port.toString());
+        }
+        getLog().info("Start ZAProxy " + command);
+        getLog().info("Using working directory [" + pf.getParentFile().getPath() + "]");
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(pf.getParentFile());
+        builder.redirectErrorStream(true);
+        return launch(builder);
+    }
+
+    /**
+     * Start reading the output of ZAProxy on its own thread
+     *
+     * @param ps the ZAProxy process
+     * @param port the port of the ZAProxy
+     * @param instances the number of ZAProxy instances started
+     * @return the reader of the output
+     */
+    private ZapOutputPump pumpOutput(Process ps, int port, int instances) {
+        File logFile = null;
+        if (zapLogFile != null && zapLogFile.length() > 0) {
+            logFile = new File((instances == 1) ? zapLogFile : FilenameUtils.removeExtension(zapLogFile) + "-" + port
+                    + (FilenameUtils.getExtension(zapLogFile).length() > 0
+                            ? "." + FilenameUtils.getExtension(zapLogFile) : ""));
+            getLog().info("ZAProxy output is written to [" + logFile + "]");
+        }
+        ZapOutputPump pump = new ZapOutputPump("port " + port, ps.getInputStream(), logFile, zapLogLevel,
+                zapLogRateLimit, zapLogTailLines, getLog());
+        pump.start();
+        return pump;
     }
 }
@@ -0,0 +1,171 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Runs tasks at the same time as far as their dependencies allow.
+ *
+ * A task starts when all tasks it depends on are done. If one of them failed it is skipped, unless it was added with
+ * {@link #addFinally}, which runs it anyway like a finally block. The failures of all tasks are collected.
+ */
+public class TaskGraph {
+
+    private final List<Task> tasks = new ArrayList<Task>();
+
+    private final Log log;
+
+    public TaskGraph(Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Add a task which runs when the tasks it depends on succeeded
+     *
+     * @param name the name of the task, for the log and the failures
+     * @param work the work of the task
+     * @param after the tasks it depends on, null entries are ignored
+     * @return the task, to depend on
+     */
+    public Task add(String name, Callable<Void> work, Task... after) {
+        return add(name, work, false, after);
+    }
+
+    /**
+     * Add a task which runs when the tasks it depends on are done, whether they succeeded or not
+     *
+     * @param name the name of the task, for the log and the failures
+     * @param work the work of the task
+     * @param after the tasks it depends on, null entries are ignored
+     * @return the task, to depend on
+     */
+    public Task addFinally(String name, Callable<Void> work, Task... after) {
+        return add(name, work, true, after);
+    }
+
+    private Task add(String name, Callable<Void> work, boolean always, Task... after) {
+        List<Task> dependencies = new ArrayList<Task>();
+        for (Task task : after) {
+            if (task != null) {
+                if (!tasks.contains(task)) {
+                    throw new IllegalArgumentException("[" + name + "] depends on [" + task.name
+                            + "] of another graph");
+                }
+                dependencies.add(task);
+            }
+        }
+        Task task = new Task(name, work, always, dependencies);
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * Run all tasks and wait for them
+     *
+     * @return the failures by the failed task, in the order the tasks were added, empty if all succeeded
+     * @throws InterruptedException if the thread was interrupted while waiting, the tasks are interrupted too
+     */
+    public Map<Task, Throwable> run() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, tasks.size()));
+        try {
+            for (final Task task : tasks) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        task.run();
+                    }
+                });
+            }
+            for (Task task : tasks) {
+                task.done.await();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<Task, Throwable> failures = new LinkedHashMap<Task, Throwable>();
+        for (Task task : tasks) {
+            if (task.failure != null) {
+                failures.put(task, task.failure);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * A task of the graph
+     */
+    public final class Task {
+
+        private final String name;
+
+        private final Callable<Void> work;
+
+        private final boolean always;
+
+        private final List<Task> after;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile boolean succeeded;
+
+        private volatile Throwable failure;
+
+        private Task(String name, Callable<Void> work, boolean always, List<Task> after) {
+            this.name = name;
+            this.work = work;
+            this.always = always;
+            this.after = after;
+        }
+
+        /**
+         * @return true if the task ran without failure
+         */
+        public boolean isSucceeded() {
+            return succeeded;
+        }
+
+        private void run() {
+            try {
+                for (Task task : after) {
+                    task.done.await();
+                    if (!task.succeeded && !always) {
+                        log.warn("Skip [" + name + "] as [" + task.name + "] did not succeed");
+                        return;
+                    }
+                }
+                long start = System.currentTimeMillis();
+                work.call();
+                succeeded = true;
+                log.info("Finished [" + name + "] in " + (System.currentTimeMillis() - start) + " ms");
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the alerts of an XML report as written by {@link XmlAlertWriter} one at a time, so only the current alert
+ * is held in memory. The "incomplete" note of the report is read as well.
+ *
+ * Reports may come from other builds, so DTDs and external entities are not processed and a report with a DOCTYPE
+ * is rejected.
+ */
+public class XmlAlertReader implements AlertSource {
+
+    private static final String ALERTS_ELEMENT = "alerts";
+
+    private static final String INCOMPLETE_ELEMENT = "incomplete";
+
+    private static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final InputStream in;
+
+    private final XMLStreamReader xml;
+
+    private boolean inAlerts;
+
+    private boolean done;
+
+    private String incomplete;
+
+    public XmlAlertReader(InputStream in) throws IOException {
+        this.in = in;
+        try {
+            xml = XML_FACTORY.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw toIOException(e);
+        }
+    }
+
+    public Alert next() throws IOException {
+        if (done) {
+            return null;
+        }
+        try {
+            if (!inAlerts && !seekAlerts()) {
+                done = true;
+                return null;
+            }
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    return readAlert();
+                }
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    // the end of the alerts array
+                    readElements();
+                    break;
+                }
+            }
+            done = true;
+            return null;
+        } catch (XMLStreamException e) {
+            throw toIOException(e);
+        }
+    }
+
+    /**
+     * Move the reader into the "alerts" array below the root element
+     *
+     * @return false if the report has no alerts array
+     */
+    private boolean seekAlerts() throws XMLStreamException {
+        int root = xml.next();
+        while (root != XMLStreamConstants.START_ELEMENT) {
+            if (root == XMLStreamConstants.DTD) {
+                throw new XMLStreamException("A report must not have a DOCTYPE", xml.getLocation());
+            }
+            if (!xml.hasNext()) {
+                return false;
+            }
+            root = xml.next();
+        }
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (ALERTS_ELEMENT.equals(xml.getLocalName())) {
+                    inAlerts = true;
+                    return true;
+                }
+                readElement();
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the elements after the alerts array, up to the end of the root element
+     */
+    private void readElements() throws XMLStreamException {
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                readElement();
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+        }
+    }
+
+    private void readElement() throws XMLStreamException {
+        if (INCOMPLETE_ELEMENT.equals(xml.getLocalName())) {
+            incomplete = xml.getElementText();
+        } else {
+            skipElement();
+        }
+    }
+
+    private Alert readAlert() throws XMLStreamException {
+        Alert alert = new Alert();
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = xml.getLocalName();
+            alert.put(name, xml.getElementText());
+        }
+        return alert;
+    }
+
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    public String getIncompleteReason() {
+        return incomplete;
+    }
+
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw toIOException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private IOException toIOException(XMLStreamException e) {
+        IOException ioe = new IOException(e.getMessage());
+        ioe.initCause(e);
+        return ioe;
+    }
+}
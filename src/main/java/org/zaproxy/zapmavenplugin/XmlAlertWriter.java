@@ -0,0 +1,107 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes the alerts as XML in the layout json-lib's XMLSerializer produced for the ZAP alerts,
+ * without building the document in memory.
+ */
+public class XmlAlertWriter implements AlertWriter {
+
+    private static final String ROOT_ELEMENT = "o";
+
+    private static final String ALERTS_ELEMENT = "alerts";
+
+    private static final String INCOMPLETE_ELEMENT = "incomplete";
+
+    private static final XMLOutputFactory XML_FACTORY = XMLOutputFactory.newInstance();
+
+    private final OutputStream out;
+
+    private final XMLStreamWriter xml;
+
+    private final ScanStatus status;
+
+    public XmlAlertWriter(OutputStream out) throws IOException {
+        this(out, null);
+    }
+
+    /**
+     * @param out the stream to write to
+     * @param status the status of the scan, an incomplete scan is noted after the alerts; null for none
+     * @throws IOException
+     */
+    public XmlAlertWriter(OutputStream out, ScanStatus status) throws IOException {
+        this.out = out;
+        this.status = status;
+        try {
+            xml = XML_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement(ROOT_ELEMENT);
+            xml.writeStartElement(ALERTS_ELEMENT);
+            xml.writeAttribute("class", "array");
+        } catch (XMLStreamException e) {
+            throw toIOException(e);
+        }
+    }
+
+    public void write(Alert alert) throws IOException {
+        try {
+            xml.writeStartElement(ALERTS_ELEMENT);
+            xml.writeAttribute("class", "object");
+            for (Map.Entry<String, String> field : alert.getFields().entrySet()) {
+                xml.writeStartElement(field.getKey());
+                xml.writeAttribute("type", "string");
+                xml.writeCharacters(field.getValue());
+                xml.writeEndElement();
+            }
+            xml.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw toIOException(e);
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            xml.writeEndElement();
+            String incomplete = (status == null) ? null : status.getIncompleteReason();
+            if (incomplete != null) {
+                xml.writeStartElement(INCOMPLETE_ELEMENT);
+                xml.writeAttribute("type", "string");
+                xml.writeCharacters(incomplete);
+                xml.writeEndElement();
+            }
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw toIOException(e);
+        } finally {
+            out.close();
+        }
+    }
+
+    private IOException toIOException(XMLStreamException e) {
+        IOException ioe = new IOException(e.getMessage());
+        ioe.initCause(e);
+        return ioe;
+    }
+}
@@ -0,0 +1,289 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Calls the ZAP API through the ZAP proxy, for the calls that need the raw response stream.
+ *
+ * The responses are asked for gzip compressed and read in large buffers. The rest of a response body, also of
+ * failed calls, is read when it is closed, so the connection to ZAP is kept alive and reused by the next call, also
+ * of other threads.
+ */
+public class ZapApi {
+
+    private static final String API_URL = "http://zap/";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Default milliseconds to wait for a connection to ZAP */
+    public static final int CONNECT_TIMEOUT = 10000;
+
+    /** Default milliseconds to wait for ZAP to answer */
+    public static final int READ_TIMEOUT = 300000;
+
+    private final Proxy proxy;
+
+    private final int connectTimeout;
+
+    private final int readTimeout;
+
+    private final Log log;
+
+    public ZapApi(String zapProxyHost, int zapProxyPort, Log log) {
+        this(zapProxyHost, zapProxyPort, CONNECT_TIMEOUT, READ_TIMEOUT, log);
+    }
+
+    /**
+     * @param zapProxyHost the host of the ZAP proxy
+     * @param zapProxyPort the port of the ZAP proxy
+     * @param connectTimeout milliseconds to wait for a connection, 0 for no limit
+     * @param readTimeout milliseconds to wait for ZAP to answer, 0 for no limit
+     * @param log the log of the mojo
+     */
+    public ZapApi(String zapProxyHost, int zapProxyPort, int connectTimeout, int readTimeout, Log log) {
+        this.proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(zapProxyHost, zapProxyPort));
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.log = log;
+    }
+
+    /**
+     * Open the response of an API call
+     *
+     * @param format the response format, e.g. "json" or "html"
+     * @param component the API component, e.g. "core"
+     * @param type "view" or "action"
+     * @param name the name of the view or action
+     * @param params pairs of parameter names and values
+     * @return the response stream, to be closed by the caller
+     * @throws IOException
+     */
+    public InputStream open(String format, String component, String type, String name, String... params)
+            throws IOException {
+        URL url = new URL(API_URL + format + "/" + component + "/" + type + "/" + name + "/" + query(params));
+
+        log.debug("Open URL: " + url.toString());
+
+        HttpURLConnection uc = connect(url);
+        int code = uc.getResponseCode();
+        if (code >= 400) {
+            throw new IOException("ZAP answered " + code + " to " + url + ": " + error(uc));
+        }
+        return body(uc, uc.getInputStream());
+    }
+
+    /**
+     * Call a JSON view which answers with a single value, e.g. <code>{"numberOfAlerts":"42"}</code>
+     *
+     * @param component the API component, e.g. "core"
+     * @param name the name of the view
+     * @param params pairs of parameter names and values
+     * @return the value or null if the response has none
+     * @throws IOException
+     */
+    public String view(String component, String name, String... params) throws IOException {
+        return value(open("json", component, "view", name, params));
+    }
+
+    /**
+     * Call a JSON action, e.g. to set an option
+     *
+     * @param component the API component, e.g. "ascan"
+     * @param name the name of the action
+     * @param params pairs of parameter names and values
+     * @return the result, "OK" if the action succeeded
+     * @throws IOException if ZAP does not know the action or refuses the parameters
+     */
+    public String action(String component, String name, String... params) throws IOException {
+        return value(open("json", component, "action", name, params));
+    }
+
+    /**
+     * Read the first value of a JSON response
+     */
+    private String value(InputStream response) throws IOException {
+        JsonParser parser = JSON_FACTORY.createJsonParser(response);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                JsonToken token = parser.nextToken();
+                if (token.isScalarValue()) {
+                    return parser.getText();
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Call a JSON view which answers with a list of values, e.g. <code>{"urls":["http://...",...]}</code>
+     *
+     * @param component the API component, e.g. "core"
+     * @param name the name of the view
+     * @param params pairs of parameter names and values
+     * @return the values of the first list in the response
+     * @throws IOException
+     */
+    public List<String> list(String component, String name, String... params) throws IOException {
+        List<String> values = new ArrayList<String>();
+        JsonParser parser = JSON_FACTORY.createJsonParser(open("json", component, "view", name, params));
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return values;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                if (parser.nextToken() == JsonToken.START_ARRAY) {
+                    JsonToken token;
+                    while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                        if (token.isScalarValue()) {
+                            values.add(parser.getText());
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    return values;
+                }
+                parser.skipChildren();
+            }
+            return values;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Request a page of a site through the ZAP proxy, like a browser would
+     *
+     * @param url the url of the page
+     * @return the response body, also for error responses, to be closed by the caller
+     * @throws IOException
+     */
+    public InputStream openThroughProxy(String url) throws IOException {
+        log.debug("Request through proxy: " + url);
+
+        HttpURLConnection uc = connect(new URL(url));
+        uc.setInstanceFollowRedirects(false);
+        int code = uc.getResponseCode();
+        InputStream in = (code >= 400) ? uc.getErrorStream() : uc.getInputStream();
+        if (in == null) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        return body(uc, in);
+    }
+
+    private HttpURLConnection connect(URL url) throws IOException {
+        HttpURLConnection uc = (HttpURLConnection) url.openConnection(proxy);
+        uc.setConnectTimeout(connectTimeout);
+        uc.setReadTimeout(readTimeout);
+        uc.setRequestProperty("Accept-Encoding", "gzip");
+        uc.setRequestProperty("Accept-Charset", "UTF-8");
+        return uc;
+    }
+
+    /**
+     * @param uc the connection
+     * @param in the raw response body
+     * @return the buffered and, if ZAP compressed it, uncompressed response body
+     */
+    private InputStream body(HttpURLConnection uc, InputStream in) throws IOException {
+        InputStream raw = in;
+        if ("gzip".equalsIgnoreCase(uc.getContentEncoding())) {
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return new DrainingInputStream(new BufferedInputStream(in, BUFFER_SIZE), raw);
+    }
+
+    /**
+     * Read the response body of a failed call, which also frees the connection for the next call
+     *
+     * @param uc the connection
+     * @return the response body
+     */
+    private String error(HttpURLConnection uc) throws IOException {
+        InputStream in = uc.getErrorStream();
+        if (in == null) {
+            return uc.getResponseMessage();
+        }
+        InputStream body = body(uc, in);
+        try {
+            return IOUtils.toString(body, "UTF-8");
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * Reads the rest of a response when it is closed, unless that is more than a buffer, so the connection is kept
+     * alive
+     */
+    private static class DrainingInputStream extends FilterInputStream {
+
+        private final InputStream raw;
+
+        DrainingInputStream(InputStream in, InputStream raw) {
+            super(in);
+            this.raw = raw;
+        }
+
+        public void close() throws IOException {
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long left = BUFFER_SIZE;
+                int n;
+                while (left > 0 && (n = raw.read(buffer, 0, (int) Math.min(buffer.length, left))) >= 0) {
+                    left -= n;
+                }
+            } catch (IOException e) {
+                // the connection is not reused then
+            } finally {
+                super.close();
+            }
+        }
+    }
+
+    private String query(String... params) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < params.length; i += 2) {
+            sb.append(i == 0 ? '?' : '&');
+            sb.append(params[i]).append('=').append(URLEncoder.encode(params[i + 1], "UTF-8"));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import org.zaproxy.clientapi.core.ClientApi;
+
+/**
+ * One running ZAProxy with the clients to talk to it.
+ */
+public class ZapInstance {
+
+    private final int port;
+
+    private final ClientApi client;
+
+    private final ZapApi api;
+
+    public ZapInstance(int port, ClientApi client, ZapApi api) {
+        this.port = port;
+        this.client = client;
+        this.api = api;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public ClientApi getClient() {
+        return client;
+    }
+
+    public ZapApi getApi() {
+        return api;
+    }
+
+    public String toString() {
+        return "ZAProxy on port " + port;
+    }
+}
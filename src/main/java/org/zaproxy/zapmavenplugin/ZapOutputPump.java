@@ -0,0 +1,265 @@
+package org.zaproxy.zapmavenplugin;
+
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Reads the output of a ZAProxy process on a single thread.
+ *
+ * Every line is written to the log file, if there is one, and kept in a ring buffer of the last lines, which is
+ * shown when ZAProxy fails to start. Only lines of at least the configured log level are passed on to the Maven log,
+ * and at most linesPerSecond of them, so a verbose ZAProxy does not flood the build log.
+ */
+public class ZapOutputPump extends Thread {
+
+    /** The log4j levels ZAProxy writes, lowest first */
+    private static final String[] LEVELS = { "TRACE", "DEBUG", "INFO", "WARN", "ERROR", "FATAL" };
+
+    private static final int WARN = 3;
+
+    private static final int ERROR = 4;
+
+    /** A threshold no line reaches */
+    private static final String OFF = "OFF";
+
+    /** Only the first tokens of a line are searched for its level */
+    private static final int LEVEL_TOKENS = 6;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream output;
+
+    private final File logFile;
+
+    private final int threshold;
+
+    private final int linesPerSecond;
+
+    private final String[] tail;
+
+    private final Log log;
+
+    private int tailEnd;
+
+    private int tailSize;
+
+    private long windowStart;
+
+    private int windowLines;
+
+    private int suppressed;
+
+    /**
+     * @param name the name of the ZAProxy, used in the messages
+     * @param output the merged stdout and stderr of the process
+     * @param logFile the file to write all output to, null for none
+     * @param level the lowest level passed on to the Maven log, e.g. "WARN", or "OFF" for none
+     * @param linesPerSecond the most lines passed on to the Maven log per second, 0 for no limit
+     * @param tailLines the number of last lines kept to show when ZAProxy fails
+     * @param log the Maven log
+     */
+    public ZapOutputPump(String name, InputStream output, File logFile, String level, int linesPerSecond,
+            int tailLines, Log log) {
+        super("ZAProxy output " + name);
+        setDaemon(true);
+        this.output = output;
+        this.logFile = logFile;
+        this.threshold = threshold(level);
+        this.linesPerSecond = linesPerSecond;
+        this.tail = new String[Math.max(1, tailLines)];
+        this.log = log;
+    }
+
+    public void run() {
+        Writer file = null;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(output), BUFFER_SIZE);
+            try {
+                if (logFile != null) {
+                    file = openLogFile();
+                }
+                // lines without a level, e.g. of a stack trace, belong to the line before
+                int level = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int lineLevel = level(line);
+                    if (lineLevel >= 0) {
+                        level = lineLevel;
+                    }
+                    remember(line);
+                    if (file != null) {
+                        file = writeLogFile(file, line);
+                    }
+                    if (level >= threshold) {
+                        forward(level, line);
+                    }
+                }
+            } finally {
+                reader.close();
+                if (file != null) {
+                    file.close();
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Reading the output of ZAProxy stopped: " + e.toString());
+        }
+    }
+
+    /**
+     * @return the writer of the log file, or null if it cannot be opened, the output is still read and passed on
+     */
+    private Writer openLogFile() {
+        try {
+            return new BufferedWriter(new OutputStreamWriter(FileUtils.openOutputStream(logFile)), BUFFER_SIZE);
+        } catch (IOException e) {
+            log.warn("Unable to write the output of " + getName() + " to [" + logFile + "]: " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @param file the writer of the log file
+     * @param line a line of output
+     * @return the writer, or null if writing failed, the output is still read and passed on
+     */
+    private Writer writeLogFile(Writer file, String line) {
+        try {
+            file.write(line);
+            file.write('\n');
+            return file;
+        } catch (IOException e) {
+            log.warn("Unable to write the output of " + getName() + " to [" + logFile + "]: " + e.toString());
+            IOUtils.closeQuietly(file);
+            return null;
+        }
+    }
+
+    /**
+     * @return the last lines ZAProxy wrote, oldest first
+     */
+    public synchronized List<String> getTail() {
+        List<String> lines = new ArrayList<String>(tailSize);
+        for (int i = tailSize; i > 0; i--) {
+            lines.add(tail[(tailEnd - i + tail.length) % tail.length]);
+        }
+        return lines;
+    }
+
+    /**
+     * Show the last lines ZAProxy wrote, after it failed
+     */
+    public void logTail() {
+        List<String> lines = getTail();
+        log.error("Last " + lines.size() + " lines of " + getName()
+                + ((logFile != null) ? ", all of it is in " + logFile : "") + ":");
+        for (String line : lines) {
+            log.error("  " + line);
+        }
+    }
+
+    /**
+     * Find the log level of a line of ZAProxy output
+     *
+     * @param line the line, e.g. "2013-07-12 22:43:00,123 [main] INFO  Constant - ..."
+     * @return the index of the level in LEVELS, or -1 if the line has none
+     */
+    static int level(String line) {
+        StringTokenizer tokens = new StringTokenizer(line, " \t[]");
+        for (int i = 0; i < LEVEL_TOKENS && tokens.hasMoreTokens(); i++) {
+            String token = tokens.nextToken();
+            for (int level = 0; level < LEVELS.length; level++) {
+                if (LEVELS[level].equals(token)) {
+                    return level;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param level a log level as configured, e.g. "WARN"
+     * @return true if the level is one of TRACE, DEBUG, INFO, WARN, ERROR, FATAL or OFF, in any case
+     */
+    static boolean isLevel(String level) {
+        if (level == null || OFF.equalsIgnoreCase(level)) {
+            return true;
+        }
+        for (String known : LEVELS) {
+            if (known.equalsIgnoreCase(level)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int threshold(String level) {
+        if (level == null || OFF.equalsIgnoreCase(level)) {
+            return LEVELS.length;
+        }
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (LEVELS[i].equalsIgnoreCase(level)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown log level [" + level + "], use one of TRACE, DEBUG, INFO, WARN,"
+                + " ERROR, FATAL or OFF");
+    }
+
+    private synchronized void remember(String line) {
+        tail[tailEnd] = line;
+        tailEnd = (tailEnd + 1) % tail.length;
+        tailSize = Math.min(tailSize + 1, tail.length);
+    }
+
+    private void forward(int level, String line) {
+        if (linesPerSecond > 0) {
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= 1000) {
+                if (suppressed > 0) {
+                    log.warn(suppressed + " lines of " + getName() + " not shown, more than " + linesPerSecond
+                            + " lines per second");
+                }
+                windowStart = now;
+                windowLines = 0;
+                suppressed = 0;
+            }
+            if (++windowLines > linesPerSecond) {
+                suppressed++;
+                return;
+            }
+        }
+        if (level >= ERROR) {
+            log.error(line);
+        } else if (level == WARN) {
+            log.warn(line);
+        } else {
+            log.info(line);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Test module for grouping the alerts
+ */
+public class AlertAggregatorTest {
+
+    @Test
+    public void groupByPluginRiskAndParam() throws IOException {
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        AlertAggregator aggregator = new AlertAggregator(xml, json, 2);
+
+        aggregator.write(alert("Cookie without HttpOnly", "Low", "JSESSIONID", "http://localhost/a"));
+        aggregator.write(alert("Cross Site Scripting", "High", "q", "http://localhost/a"));
+        aggregator.write(alert("Cookie without HttpOnly", "Low", "JSESSIONID", "http://localhost/b"));
+        aggregator.write(alert("Cookie without HttpOnly", "Low", "JSESSIONID", "http://localhost/c"));
+        aggregator.write(alert("Cookie without HttpOnly", "Low", "other", "http://localhost/a"));
+        aggregator.close();
+
+        assertEquals(3, aggregator.size());
+        assertEquals("{\"groups\":["
+                + "{\"alert\":\"Cookie without HttpOnly\",\"plugin\":\"Cookie without HttpOnly\",\"risk\":\"Low\","
+                + "\"param\":\"JSESSIONID\",\"count\":3,\"urls\":[\"http://localhost/a\",\"http://localhost/b\"]},"
+                + "{\"alert\":\"Cross Site Scripting\",\"plugin\":\"Cross Site Scripting\",\"risk\":\"High\","
+                + "\"param\":\"q\",\"count\":1,\"urls\":[\"http://localhost/a\"]},"
+                + "{\"alert\":\"Cookie without HttpOnly\",\"plugin\":\"Cookie without HttpOnly\",\"risk\":\"Low\","
+                + "\"param\":\"other\",\"count\":1,\"urls\":[\"http://localhost/a\"]}]}",
+                json.toString("UTF-8"));
+        assertTrue(xml.toString("UTF-8").contains("<count type=\"number\">3</count>"));
+    }
+
+    @Test
+    public void growBeyondInitialCapacity() throws IOException {
+        AlertAggregator aggregator = new AlertAggregator(new ByteArrayOutputStream(), null, 1);
+        for (int i = 0; i < 10000; i++) {
+            aggregator.write(alert("Alert " + (i % 3000), "Low", "p", "http://localhost/" + i));
+        }
+        aggregator.close();
+
+        assertEquals(3000, aggregator.size());
+    }
+
+    private Alert alert(String name, String risk, String param, String url) {
+        Alert alert = new Alert();
+        alert.put("alert", name);
+        alert.put("risk", risk);
+        alert.put("param", param);
+        alert.put("url", url);
+        return alert;
+    }
+}
@@ -0,0 +1,84 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test module for fetching the alerts of ZAP in pages
+ */
+public class AlertFetcherTest {
+
+    private FakeZapServer zap;
+
+    private ZapApi api;
+
+    @Before
+    public void setup() throws IOException {
+        zap = new FakeZapServer().site("http://target.local/app/", 10).start();
+        api = new ZapApi("localhost", zap.getPort(), new SystemStreamLog());
+    }
+
+    @After
+    public void tearDown() {
+        zap.stop();
+    }
+
+    @Test
+    public void writePagesInOrderOfTheAlerts() throws IOException {
+        zap.alerts(1050, 10).alertPageDelay(200);
+        EvidenceWriter writer = new EvidenceWriter();
+
+        assertEquals(1050, new AlertFetcher(api, 100, 4, new SystemStreamLog()).fetch("", writer));
+
+        assertEquals(1050, writer.evidence.size());
+        for (int i = 0; i < writer.evidence.size(); i++) {
+            assertEquals("evidence " + i, writer.evidence.get(i));
+        }
+        // the pages were answered out of order
+        List<Integer> answered = zap.getAnsweredAlertPages();
+        List<Integer> sorted = new ArrayList<Integer>(answered);
+        Collections.sort(sorted);
+        assertFalse(answered.equals(sorted));
+    }
+
+    @Test
+    public void fetchLastPartialPage() throws IOException {
+        zap.alerts(250, 10);
+        EvidenceWriter writer = new EvidenceWriter();
+
+        assertEquals(250, new AlertFetcher(api, 100, 4, new SystemStreamLog()).fetch("", writer));
+
+        assertEquals("evidence 249", writer.evidence.get(249));
+        assertEquals(3, zap.count("core/view/alerts"));
+    }
+
+    @Test
+    public void fetchNoEmptyPageAfterTheLast() throws IOException {
+        zap.alerts(300, 10);
+
+        assertEquals(300, new AlertFetcher(api, 100, 4, new SystemStreamLog()).fetch("", new EvidenceWriter()));
+
+        assertEquals(3, zap.count("core/view/alerts"));
+    }
+
+    private static class EvidenceWriter implements AlertWriter {
+        private final List<String> evidence = new ArrayList<String>();
+
+        public void write(Alert alert) {
+            evidence.add(alert.getEvidence());
+        }
+
+        public void close() {
+        }
+    }
+}
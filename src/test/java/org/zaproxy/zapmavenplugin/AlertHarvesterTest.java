@@ -0,0 +1,140 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test module for harvesting the alerts while ZAP is scanning
+ */
+public class AlertHarvesterTest {
+
+    private ProcessZAPFixture fixture;
+
+    private FakeZapServer zap;
+
+    @Before
+    public void setup() throws Throwable {
+        fixture = new ProcessZAPFixture();
+        zap = fixture.getZap();
+    }
+
+    @After
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Test
+    public void harvestEveryAlertOnceInOrder() throws Exception {
+        zap.alerts(1000, 10).scanDurations(0, 1000);
+        ZapApi api = new ZapApi("localhost", zap.getPort(), new SystemStreamLog());
+        api.action("ascan", "scan", "url", ProcessZAPFixture.TARGET_URL);
+        final List<String> evidence = new ArrayList<String>();
+        AlertHarvester harvester = new AlertHarvester("stand-in ZAP", api, 100, 50, new AlertWriter() {
+            public void write(Alert alert) {
+                evidence.add(alert.getEvidence());
+            }
+
+            public void close() {
+            }
+        }, new SystemStreamLog());
+
+        harvester.start();
+        while (!"100".equals(api.view("ascan", "status"))) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(1000, harvester.finish());
+        assertEquals(1000, evidence.size());
+        for (int i = 0; i < evidence.size(); i++) {
+            assertEquals("evidence " + i, evidence.get(i));
+        }
+        // rounds of harvesting while the active scan ran
+        assertTrue(zap.count("core/view/numberOfAlerts") > 2);
+    }
+
+    @Test
+    public void fetchAlertsAfterScanWithoutPaging() throws Exception {
+        zap.alerts(1000, 10).scanDurations(0, 1000).ignorePaging();
+        ZapApi api = new ZapApi("localhost", zap.getPort(), new SystemStreamLog());
+        api.action("ascan", "scan", "url", ProcessZAPFixture.TARGET_URL);
+        final List<String> evidence = new ArrayList<String>();
+        AlertHarvester harvester = new AlertHarvester("stand-in ZAP", api, 100, 50, new AlertWriter() {
+            public void write(Alert alert) {
+                evidence.add(alert.getEvidence());
+            }
+
+            public void close() {
+            }
+        }, new SystemStreamLog());
+
+        harvester.start();
+        while (!"100".equals(api.view("ascan", "status"))) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(1000, harvester.finish());
+        assertTrue(harvester.isPagingIgnored());
+        assertEquals(1000, evidence.size());
+        for (int i = 0; i < evidence.size(); i++) {
+            assertEquals("evidence " + i, evidence.get(i));
+        }
+    }
+
+    @Test
+    public void stopAndLogWhenWriterFails() throws Exception {
+        zap.alerts(100, 10).scanDurations(0, 0);
+        ZapApi api = new ZapApi("localhost", zap.getPort(), new SystemStreamLog());
+        final List<String> evidence = new ArrayList<String>();
+        final List<String> errors = new ArrayList<String>();
+        AlertHarvester harvester = new AlertHarvester("stand-in ZAP", api, 10, 10, new AlertWriter() {
+            private boolean failed;
+
+            public void write(Alert alert) {
+                if (!failed) {
+                    failed = true;
+                    throw new IllegalStateException("the report is broken");
+                }
+                evidence.add(alert.getEvidence());
+            }
+
+            public void close() {
+            }
+        }, new SystemStreamLog() {
+            public void error(CharSequence content) {
+                errors.add(content.toString());
+            }
+        });
+
+        harvester.start();
+        harvester.join(10000);
+
+        assertFalse(harvester.isAlive());
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).endsWith("java.lang.IllegalStateException: the report is broken"));
+        assertEquals(100, harvester.finish());
+        assertEquals(100, evidence.size());
+        assertEquals("evidence 0", evidence.get(0));
+    }
+
+    @Test
+    public void harvestAlertsDuringScan() throws Throwable {
+        zap.alerts(5000, 20).scanDurations(100, 1500);
+        fixture.set("alertPageSize", 500);
+        fixture.set("harvestAlerts", true);
+        fixture.set("alertHarvestInterval", 100L);
+
+        fixture.execute();
+
+        assertEquals(5000, ProcessZAPFixture.countAlerts(fixture.report(".json")));
+        assertTrue(zap.count("core/view/numberOfAlerts") > 5);
+    }
+}
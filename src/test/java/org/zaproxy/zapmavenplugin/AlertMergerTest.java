@@ -0,0 +1,86 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test module for merging the sorted reports of the shards of a scan
+ */
+public class AlertMergerTest {
+
+    @Test
+    public void mergeSortedReportsWithoutDuplicates() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AlertMerger merger = new AlertMerger();
+        JsonAlertWriter writer = new JsonAlertWriter(out);
+        merger.merge(Arrays.asList(reader("a", "c", "d"), reader("b", "c"), reader()), writer);
+        writer.close();
+
+        assertEquals(4, merger.getMerged());
+        assertEquals(1, merger.getDuplicates());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), urls(out));
+    }
+
+    @Test
+    public void rejectUnsortedReport() throws IOException {
+        try {
+            new AlertMerger().merge(Arrays.asList(reader("a", "b"), reader("d", "c")),
+                    new JsonAlertWriter(new ByteArrayOutputStream()));
+            fail("Merged an unsorted report");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("report 2 are not sorted"));
+        }
+    }
+
+    @Test
+    public void sortInRunsOnDisk() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SortingAlertWriter writer = new SortingAlertWriter(new JsonAlertWriter(out), 3);
+        for (String url : new String[] { "e", "b", "g", "a", "b", "f", "d", "c" }) {
+            writer.write(alert(url));
+        }
+        writer.close();
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f", "g"), urls(out));
+        assertEquals(1, writer.getMerger().getDuplicates());
+    }
+
+    private AlertReader reader(String... urls) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonAlertWriter writer = new JsonAlertWriter(out);
+        for (String url : urls) {
+            writer.write(alert(url));
+        }
+        writer.close();
+        return new AlertReader(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private Alert alert(String url) {
+        Alert alert = new Alert();
+        alert.put("alert", "Cross Site Scripting");
+        alert.put("risk", "High");
+        alert.put("url", url);
+        alert.put("pluginId", "40012");
+        return alert;
+    }
+
+    private List<String> urls(ByteArrayOutputStream out) throws IOException {
+        List<String> urls = new ArrayList<String>();
+        AlertReader reader = new AlertReader(new ByteArrayInputStream(out.toByteArray()));
+        Alert alert;
+        while ((alert = reader.next()) != null) {
+            urls.add(alert.getUrl());
+        }
+        return urls;
+    }
+}
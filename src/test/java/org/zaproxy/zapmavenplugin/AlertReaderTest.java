@@ -0,0 +1,165 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Test module for streaming the alerts into the reports
+ */
+public class AlertReaderTest {
+
+    private static final String ALERTS = "{\"alerts\":["
+            + "{\"alert\":\"Cross Site Scripting\",\"risk\":\"High\",\"url\":\"http://localhost/a?q=<x>\"},"
+            + "{\"alert\":\"Cookie without HttpOnly\",\"risk\":\"Low\",\"url\":\"http://localhost/b\"}"
+            + "]}";
+
+    @Test
+    public void readAlertsOneByOne() throws IOException {
+        AlertReader reader = reader(ALERTS);
+
+        Alert first = reader.next();
+        assertEquals("Cross Site Scripting", first.get("alert"));
+        assertEquals("High", first.getRisk());
+        assertEquals("http://localhost/b", reader.next().getUrl());
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void readNoAlerts() throws IOException {
+        assertNull(reader("{\"alerts\":[]}").next());
+        assertNull(reader("{\"code\":\"bad_view\"}").next());
+    }
+
+    @Test
+    public void writeJsonLikeZap() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(reader(ALERTS), new JsonAlertWriter(out));
+
+        assertEquals(ALERTS, out.toString("UTF-8"));
+    }
+
+    @Test
+    public void writeXmlLikeXmlSerializer() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(reader(ALERTS), new XmlAlertWriter(out));
+
+        String xml = out.toString("UTF-8");
+        assertTrue(xml.contains("<o><alerts class=\"array\"><alerts class=\"object\">"));
+        assertTrue(xml.contains("<risk type=\"string\">High</risk>"));
+        assertTrue(xml.contains("<url type=\"string\">http://localhost/a?q=&lt;x&gt;</url>"));
+        assertTrue(xml.endsWith("</alerts></alerts></o>"));
+    }
+
+    @Test
+    public void readXmlReport() throws IOException {
+        ScanStatus status = new ScanStatus();
+        status.incomplete("spider stopped");
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        copy(reader(ALERTS), new XmlAlertWriter(xml, status));
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        copy(new XmlAlertReader(new ByteArrayInputStream(xml.toByteArray())), new JsonAlertWriter(json));
+
+        assertEquals(ALERTS, json.toString("UTF-8"));
+    }
+
+    @Test
+    public void rejectXmlReportWithDoctype() throws IOException {
+        String report = "<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE OWASPZAPReport [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>\n"
+                + "<OWASPZAPReport><alerts><alertitem><alert>&xxe;</alert></alertitem></alerts></OWASPZAPReport>";
+        XmlAlertReader reader = new XmlAlertReader(new ByteArrayInputStream(report.getBytes("UTF-8")));
+        try {
+            reader.next();
+            fail("The report with a DOCTYPE was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("A report must not have a DOCTYPE"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void writeHtmlWithSummary() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(reader(ALERTS), new HtmlAlertWriter(out));
+
+        String html = out.toString("UTF-8");
+        assertTrue(html.contains("<h3>Cross Site Scripting</h3>"));
+        assertTrue(html.contains("<td>http://localhost/a?q=&lt;x&gt;</td>"));
+        assertTrue(html.contains("<tr><td>High</td><td>1</td></tr>"));
+        assertTrue(html.contains("<tr><td>Total</td><td>2</td></tr>"));
+    }
+
+    @Test
+    public void markIncompleteScan() throws IOException {
+        ScanStatus status = new ScanStatus();
+        status.incomplete("active scan stopped");
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        copy(reader(ALERTS), new JsonAlertWriter(json, status));
+        ByteArrayOutputStream html = new ByteArrayOutputStream();
+        copy(reader(ALERTS), new HtmlAlertWriter(html, status));
+
+        assertTrue(json.toString("UTF-8").endsWith("],\"incomplete\":\"active scan stopped\"}"));
+        assertEquals(2, count(reader(json.toString("UTF-8"))));
+        assertTrue(html.toString("UTF-8").contains("<h2>Incomplete Scan</h2>\n<p>active scan stopped</p>"));
+    }
+
+    @Test
+    public void writeOnOwnThread() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(reader(ALERTS), new AsyncAlertWriter("json", new JsonAlertWriter(out)));
+
+        assertEquals(ALERTS, out.toString("UTF-8"));
+    }
+
+    @Test(timeout = 10000)
+    public void failWhenWriterThreadDies() throws IOException {
+        AlertWriter writer = new AsyncAlertWriter("dying", new AlertWriter() {
+            public void write(Alert alert) {
+                throw new Error("the writer thread dies");
+            }
+
+            public void close() {
+            }
+        });
+        try {
+            // more alerts than the queue holds
+            for (int i = 0; i < 2000; i++) {
+                writer.write(new Alert());
+            }
+            writer.close();
+            fail("The alerts were written by a dead writer");
+        } catch (IOException e) {
+            assertEquals("The writer of the report stopped", e.getMessage());
+        }
+    }
+
+    private AlertReader reader(String json) throws IOException {
+        return new AlertReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+
+    private int count(AlertReader reader) throws IOException {
+        int count = 0;
+        while (reader.next() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    private void copy(AlertSource reader, AlertWriter writer) throws IOException {
+        Alert alert;
+        while ((alert = reader.next()) != null) {
+            writer.write(alert);
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,156 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test module for the binary alert store
+ */
+public class AlertStoreTest {
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("zap", ".alerts");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void queryByRiskPluginAndHost() throws IOException {
+        AlertStoreWriter writer = new AlertStoreWriter(file.getPath());
+        writer.write(alert("40012", "High", "http://Localhost:8080/a?q=<x>", "q"));
+        writer.write(alert("10010", "Low", "http://localhost:8080/b", null));
+        writer.write(alert("40012", "High", "https://example.com/\u00e9t\u00e9", "p"));
+        writer.close();
+
+        AlertStore store = new AlertStore(file);
+        try {
+            assertEquals(3, store.size());
+            assertNull(store.getIncompleteReason());
+            assertEquals(Arrays.asList("High", "Low"), store.getRisks());
+            assertEquals(Arrays.asList("localhost:8080", "example.com"), store.getHosts());
+            assertTrue(Arrays.equals(new int[] { 0, 2 }, store.byRisk("High")));
+            assertTrue(Arrays.equals(new int[] { 1 }, store.byPlugin("10010")));
+            assertTrue(Arrays.equals(new int[] { 0, 1 }, store.byHost("LOCALHOST:8080")));
+            assertEquals(0, store.byRisk("Medium").length);
+
+            Alert alert = store.get(2);
+            assertEquals("https://example.com/\u00e9t\u00e9", alert.getUrl());
+            assertEquals("p", alert.getParam());
+            assertNull(store.get(1).getParam());
+            assertEquals(store.get(0).getFields(), alert("40012", "High", "http://Localhost:8080/a?q=<x>", "q")
+                    .getFields());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void storeNoAlerts() throws IOException {
+        new AlertStoreWriter(file.getPath()).close();
+
+        AlertStore store = new AlertStore(file);
+        assertEquals(0, store.size());
+        assertEquals(0, store.byRisk("High").length);
+        store.close();
+    }
+
+    @Test
+    public void failWhenTooLargeToMap() throws IOException {
+        file.delete();
+        AlertStoreWriter writer = new AlertStoreWriter(file.getPath(), null, 1024);
+        for (int i = 0; i < 100; i++) {
+            writer.write(alert("40012", "High", "http://localhost/page" + i, "q"));
+        }
+
+        try {
+            writer.close();
+            fail("A store larger than its limit was written");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().endsWith("more than the 1024 bytes an alert store can have"));
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void storeValuesOfEveryAlertInline() throws IOException {
+        StringBuilder evidence = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            evidence.append("\u00e9vidence ");
+        }
+        AlertStoreWriter writer = new AlertStoreWriter(file.getPath());
+        for (int i = 0; i < 5000; i++) {
+            Alert alert = alert("40012", "High", "http://localhost/page" + i, "q");
+            alert.put("description", "Cross Site Scripting");
+            alert.put("evidence", i % 1000 == 0 ? evidence.toString() + i : "<script>" + i);
+            writer.write(alert);
+        }
+        writer.close();
+
+        AlertStore store = new AlertStore(file);
+        try {
+            assertEquals(5000, store.size());
+            assertEquals(5000, store.byPlugin("40012").length);
+            assertEquals("http://localhost/page4999", store.get(4999).getUrl());
+            assertEquals("<script>4321", store.get(4321).getEvidence());
+            assertEquals(evidence.toString() + 3000, store.get(3000).getEvidence());
+            assertEquals("Cross Site Scripting", store.get(2500).get("description"));
+            assertEquals("q", store.get(0).getParam());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void queryStoreOfScan() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            fixture.getZap().alerts(20000, 40).scanDurations(0, 0);
+            fixture.set("alertPageSize", 1000);
+            fixture.set("alertStore", true);
+            fixture.execute();
+
+            AlertStore store = new AlertStore(fixture.report(".alerts"));
+            try {
+                int[] high = store.byRisk("High");
+                assertEquals(20000, store.size());
+                assertEquals(5000, high.length);
+                assertEquals("High", store.get(high[high.length - 1]).getRisk());
+                assertEquals("evidence 19999", store.get(19999).getEvidence());
+                assertEquals(20000, store.byHost("target.local").length);
+                assertEquals(500, store.byPlugin("10000").length);
+            } finally {
+                store.close();
+            }
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    private Alert alert(String pluginId, String risk, String url, String param) {
+        Alert alert = new Alert();
+        alert.put("pluginId", pluginId);
+        alert.put("risk", risk);
+        alert.put("url", url);
+        if (param != null) {
+            alert.put("param", param);
+        }
+        return alert;
+    }
+}
@@ -0,0 +1,142 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test module for comparing the alerts with a report of an earlier build
+ */
+public class BaselineDiffTest {
+
+    private File directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = File.createTempFile("zap-baseline", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void reportNewAndResolvedAlerts() throws IOException {
+        File baseline = report("baseline.xml.gz", alert("40012", "http://localhost/a", "q", "<script>"),
+                alert("10010", "http://localhost/b", "", ""), alert("10010", "http://localhost/b", "", ""));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BaselineDiff diff = new BaselineDiff(baseline, out);
+        // the earlier report is read once
+        assertTrue(baseline.delete());
+        diff.write(alert("40012", "http://localhost/a", "q", "<script>"));
+        diff.write(alert("40012", "http://localhost/c", "q", "<script>"));
+        diff.close();
+
+        assertEquals(1, diff.getAdded());
+        assertEquals(1, diff.getResolved());
+        String json = out.toString("UTF-8");
+        assertTrue(json.startsWith("{\"new\":[{\"pluginId\":\"40012\",\"url\":\"http://localhost/c\""));
+        assertTrue(json.contains("\"resolved\":[{\"pluginId\":\"10010\",\"url\":\"http://localhost/b\""));
+        assertTrue(json.endsWith("\"counts\":{\"baseline\":2,\"new\":1,\"resolved\":1}}"));
+    }
+
+    @Test
+    public void writeNewAlertsOnce() throws IOException {
+        File baseline = report("baseline.json", alert("40012", "http://localhost/a", "q", "<script>"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BaselineDiff diff = new BaselineDiff(baseline, out);
+        diff.write(alert("40012", "http://localhost/a", "q", "<script>"));
+        diff.write(alert("40012", "http://localhost/c", "q", "<script>"));
+        diff.write(alert("40012", "http://localhost/c", "q", "<script>"));
+        diff.close();
+
+        assertEquals(1, diff.getAdded());
+        String json = out.toString("UTF-8");
+        assertEquals(json.indexOf("http://localhost/c"), json.lastIndexOf("http://localhost/c"));
+        assertTrue(json.endsWith("\"counts\":{\"baseline\":1,\"new\":1,\"resolved\":0}}"));
+    }
+
+    @Test
+    public void writeManyNewAlertsOnce() throws IOException {
+        File baseline = report("baseline.json", alert("40012", "http://localhost/a", "q", "<script>"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BaselineDiff diff = new BaselineDiff(baseline, out);
+        for (int i = 0; i < 5000; i++) {
+            diff.write(alert("40012", "http://localhost/page" + (i % 2500), "q", "<script>"));
+        }
+        diff.close();
+
+        assertEquals(2500, diff.getAdded());
+        assertEquals(1, diff.getResolved());
+    }
+
+    @Test
+    public void compareWithJsonBaseline() throws IOException {
+        File baseline = report("baseline.json", alert("40012", "http://localhost/a", "q", "<script>"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BaselineDiff diff = new BaselineDiff(baseline, out);
+        diff.write(alert("40012", "http://localhost/a", "q", "<script>"));
+        diff.close();
+
+        assertEquals("{\"new\":[],\"resolved\":[],\"counts\":{\"baseline\":1,\"new\":0,\"resolved\":0}}",
+                out.toString("UTF-8"));
+    }
+
+    @Test
+    public void diffWithBaselineReport() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            FakeZapServer zap = fixture.getZap().alerts(1000, 10).scanDurations(0, 0);
+            fixture.execute();
+            File baseline = new File(directory, "baseline.xml");
+            FileUtils.moveFile(fixture.report(".xml"), baseline);
+            FileUtils.cleanDirectory(fixture.getReportsDirectory());
+
+            zap.alerts(800, 10);
+            fixture.set("baselineReport", baseline.getPath());
+            fixture.execute();
+
+            String diff = FileUtils.readFileToString(fixture.report("-diff.json"));
+            assertTrue(diff.startsWith("{\"new\":[],\"resolved\":[{"));
+            assertTrue(diff.endsWith("\"counts\":{\"baseline\":1000,\"new\":0,\"resolved\":200}}"));
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    private File report(String name, Alert... alerts) throws IOException {
+        boolean compress = name.endsWith(ReportFiles.GZIP_SUFFIX);
+        String fileName = new File(directory, compress ? name.substring(0, name.length() - 3) : name).getPath();
+        AlertWriter writer = fileName.endsWith(".xml") ? new XmlAlertWriter(ReportFiles.open(fileName, compress))
+                : new JsonAlertWriter(ReportFiles.open(fileName, compress));
+        for (Alert alert : alerts) {
+            writer.write(alert);
+        }
+        writer.close();
+        return new File(directory, name);
+    }
+
+    private Alert alert(String pluginId, String url, String param, String evidence) {
+        Alert alert = new Alert();
+        alert.put("pluginId", pluginId);
+        alert.put("url", url);
+        alert.put("param", param);
+        alert.put("evidence", evidence);
+        return alert;
+    }
+}
@@ -0,0 +1,576 @@
+package org.zaproxy.zapmavenplugin;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for ZAProxy, serving the parts of the ZAP API and proxy the mojos use.
+ *
+ * Requests for http://zap/ are answered like the ZAP API, in XML for ClientApi and in JSON for ZapApi. Requests for
+ * any other host are answered like the site behind the proxy. Spider and active scans progress over a configurable
+ * time along an S-curve, the alerts appear along with the progress of the active scan and are generated on the fly
+ * so large alert sets cost no memory, and every API response can be delayed to simulate a loaded ZAP. Responses are
+ * compressed for clients accepting gzip.
+ */
+public class FakeZapServer {
+
+    private static final String[] RISKS = { "High", "Medium", "Low", "Informational" };
+
+    static {
+        // answer without waiting for the delayed ACK of the headers, which costs every request 40 ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final AtomicInteger nextScanId = new AtomicInteger();
+
+    private final Map<String, Scan> scans = new HashMap<String, Scan>();
+
+    private final Map<String, Scan> lastScans = new HashMap<String, Scan>();
+
+    private final Map<String, String> pageContents = new HashMap<String, String>();
+
+    private final List<String> calls = new ArrayList<String>();
+
+    private final List<String> scannedUrls = new ArrayList<String>();
+
+    private final Map<String, Integer> maxRunningScans = new HashMap<String, Integer>();
+
+    private final List<Integer> answeredAlertPages = new ArrayList<Integer>();
+
+    private final Map<String, String> options = new HashMap<String, String>();
+
+    private final Set<String> connections = new HashSet<String>();
+
+    private final AtomicInteger compressed = new AtomicInteger();
+
+    private volatile List<String> siteUrls = Collections.singletonList("http://target.local/app/");
+
+    private volatile int pages = 10;
+
+    private volatile int alerts = 100;
+
+    private volatile int plugins = 20;
+
+    private volatile long spiderMillis = 200;
+
+    private volatile long ascanMillis = 500;
+
+    private volatile int requestsPerPage = 50;
+
+    private volatile long responseDelayMillis;
+
+    private volatile long saveSessionMillis;
+
+    private volatile long alertPageDelayMillis;
+
+    private volatile boolean pagingIgnored;
+
+    public FakeZapServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    FakeZapServer.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    public FakeZapServer start() {
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the port to use as zapProxyPort
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @param siteUrl the url of the site behind the proxy, all pages and alerts are below it
+     * @param pages the number of pages the spider finds
+     * @return this
+     */
+    public FakeZapServer site(String siteUrl, int pages) {
+        return sites(pages, siteUrl);
+    }
+
+    /**
+     * @param pages the number of pages the spider finds on each site
+     * @param siteUrls the urls of the sites behind the proxy, the alerts are spread over them in turn
+     * @return this
+     */
+    public FakeZapServer sites(int pages, String... siteUrls) {
+        this.siteUrls = Arrays.asList(siteUrls);
+        this.pages = pages;
+        return this;
+    }
+
+    /**
+     * @param alerts the number of alerts, spread over the pages
+     * @param plugins the number of different plugins raising them
+     * @return this
+     */
+    public FakeZapServer alerts(int alerts, int plugins) {
+        this.alerts = alerts;
+        this.plugins = plugins;
+        return this;
+    }
+
+    /**
+     * @param spiderMillis the time a spider takes
+     * @param ascanMillis the time an active scan takes
+     * @return this
+     */
+    public FakeZapServer scanDurations(long spiderMillis, long ascanMillis) {
+        this.spiderMillis = spiderMillis;
+        this.ascanMillis = ascanMillis;
+        return this;
+    }
+
+    /**
+     * @param responseDelayMillis the time every API call takes before answering
+     * @return this
+     */
+    public FakeZapServer responseDelay(long responseDelayMillis) {
+        this.responseDelayMillis = responseDelayMillis;
+        return this;
+    }
+
+    /**
+     * @param saveSessionMillis the time saving a session takes, its end is recorded as the call
+     *            "core/action/saveSession/done"
+     * @return this
+     */
+    public FakeZapServer saveSessionDuration(long saveSessionMillis) {
+        this.saveSessionMillis = saveSessionMillis;
+        return this;
+    }
+
+    /**
+     * @param alertPageDelayMillis the extra time every other page of alerts takes, starting with the first, so that
+     *            pages fetched at the same time are answered out of order
+     * @return this
+     */
+    public FakeZapServer alertPageDelay(long alertPageDelayMillis) {
+        this.alertPageDelayMillis = alertPageDelayMillis;
+        return this;
+    }
+
+    /**
+     * Answer the alerts view with all alerts, ignoring start and count like versions of ZAP before they were added
+     *
+     * @return this
+     */
+    public FakeZapServer ignorePaging() {
+        this.pagingIgnored = true;
+        return this;
+    }
+
+    /**
+     * Change the content of a page of the site
+     *
+     * @param url the url of the page
+     * @param content the new content
+     */
+    public synchronized void changePage(String url, String content) {
+        pageContents.put(url, content);
+    }
+
+    /**
+     * @param component the API component, e.g. "ascan"
+     * @param name the name of the option, e.g. "ThreadPerHost"
+     * @return the value set through the API, or null if it was not set
+     */
+    public synchronized String getOption(String component, String name) {
+        return options.get(component + "/Option" + name);
+    }
+
+    /**
+     * @return the number of TCP connections the clients opened so far
+     */
+    public synchronized int getConnections() {
+        return connections.size();
+    }
+
+    /**
+     * @return the number of responses sent compressed
+     */
+    public int getCompressedResponses() {
+        return compressed.get();
+    }
+
+    /**
+     * @return the API calls so far, as "component/type/name"
+     */
+    public synchronized List<String> getCalls() {
+        return new ArrayList<String>(calls);
+    }
+
+    /**
+     * @return the URLs the active scans were started with so far
+     */
+    public synchronized List<String> getScannedUrls() {
+        return new ArrayList<String>(scannedUrls);
+    }
+
+    /**
+     * @param component the API component, "spider" or "ascan"
+     * @return the most scans of the component which ran at the same time so far
+     */
+    public synchronized int getMaxRunningScans(String component) {
+        Integer max = maxRunningScans.get(component);
+        return (max == null) ? 0 : max;
+    }
+
+    /**
+     * @return the start of the pages of alerts answered so far, in the order they were answered
+     */
+    public synchronized List<Integer> getAnsweredAlertPages() {
+        return new ArrayList<Integer>(answeredAlertPages);
+    }
+
+    /**
+     * @param call the API call, as "component/type/name"
+     * @return how often it was called
+     */
+    public synchronized int count(String call) {
+        int count = 0;
+        for (String made : calls) {
+            if (made.equals(call)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        synchronized (this) {
+            connections.add(exchange.getRemoteAddress().toString());
+        }
+        URI uri = exchange.getRequestURI();
+        if (!"zap".equals(uri.getHost())) {
+            respond(exchange, "text/html", page(uri.toString()));
+            return;
+        }
+
+        // /<format>/<component>/<type>/<name>/
+        String[] path = uri.getPath().split("/");
+        if (path.length < 5) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        String format = path[1];
+        String component = path[2];
+        String type = path[3];
+        String name = path[4];
+        Map<String, String> params = params(uri.getRawQuery());
+        synchronized (this) {
+            calls.add(component + "/" + type + "/" + name);
+        }
+        delay();
+
+        if ("json".equals(format) && "core".equals(component) && "alerts".equals(name)) {
+            streamAlerts(exchange, params);
+        } else if ("json".equals(format) && ("urls".equals(name) || "results".equals(name))) {
+            respond(exchange, "application/json", jsonList(name, pageUrls()));
+        } else {
+            String value = "action".equals(type) ? action(component, name, params) : view(component, name, params);
+            if ("xml".equals(format)) {
+                respond(exchange, "text/xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?><" + name + ">" + value
+                        + "</" + name + ">");
+            } else {
+                respond(exchange, "application/json", "{\"" + name + "\":\"" + value + "\"}");
+            }
+        }
+    }
+
+    private String action(String component, String name, Map<String, String> params) {
+        if ("scan".equals(name)) {
+            Scan scan = new Scan(component, "ascan".equals(component) ? ascanMillis : spiderMillis);
+            synchronized (this) {
+                int running = 1;
+                for (Scan other : scans.values()) {
+                    if (other.component.equals(component) && other.progress() < 100) {
+                        running++;
+                    }
+                }
+                Integer max = maxRunningScans.get(component);
+                maxRunningScans.put(component, (max == null) ? running : Math.max(max, running));
+                scans.put(scan.id, scan);
+                lastScans.put(component, scan);
+                if ("ascan".equals(component)) {
+                    scannedUrls.add(params.get("url"));
+                }
+            }
+            return scan.id;
+        }
+        if (name.startsWith("setOption")) {
+            synchronized (this) {
+                options.put(component + "/" + name.substring("set".length()), params.get("Integer"));
+            }
+        }
+        if ("stop".equals(name)) {
+            Scan scan = scan(component, params.get("scanId"));
+            if (scan != null) {
+                scan.stopped = true;
+            }
+        }
+        if ("saveSession".equals(name)) {
+            try {
+                Thread.sleep(saveSessionMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                calls.add("core/action/saveSession/done");
+            }
+        }
+        return "OK";
+    }
+
+    private String view(String component, String name, Map<String, String> params) {
+        if ("status".equals(name)) {
+            Scan scan = scan(component, params.get("scanId"));
+            return String.valueOf(scan == null ? 100 : scan.progress());
+        }
+        if (name.startsWith("option")) {
+            synchronized (this) {
+                String value = options.get(component + "/" + name.substring(0, 1).toUpperCase() + name.substring(1));
+                return (value == null) ? "0" : value;
+            }
+        }
+        if ("version".equals(name)) {
+            return "2.2.0";
+        }
+        if ("numberOfAlerts".equals(name)) {
+            return String.valueOf(countAlerts(nonNull(params.get("baseurl"))));
+        }
+        if ("numberOfMessages".equals(name)) {
+            return String.valueOf(messages());
+        }
+        return "0";
+    }
+
+    private synchronized Scan scan(String component, String scanId) {
+        return (scanId == null) ? lastScans.get(component) : scans.get(scanId);
+    }
+
+    private synchronized long messages() {
+        long messages = pages;
+        for (Scan scan : scans.values()) {
+            if ("ascan".equals(scan.component)) {
+                messages += (long) pages * requestsPerPage * scan.progress() / 100;
+            }
+        }
+        return messages;
+    }
+
+    private void streamAlerts(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String baseUrl = nonNull(params.get("baseurl"));
+        int start = (params.containsKey("start") && !pagingIgnored) ? Integer.parseInt(params.get("start")) : 0;
+        int count = (params.containsKey("count") && !pagingIgnored) ? Integer.parseInt(params.get("count"))
+                : Integer.MAX_VALUE;
+        if (count < Integer.MAX_VALUE && (start / count) % 2 == 0 && alertPageDelayMillis > 0) {
+            try {
+                Thread.sleep(alertPageDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(body(exchange, "application/json", 0), "UTF-8"),
+                64 * 1024);
+        out.write("{\"alerts\":[");
+        int matching = 0;
+        int written = 0;
+        int visible = visibleAlerts();
+        for (int i = 0; i < visible && written < count; i++) {
+            String url = alertUrl(i);
+            if (url.startsWith(baseUrl) && matching++ >= start) {
+                if (written++ > 0) {
+                    out.write(',');
+                }
+                writeAlert(out, i, url);
+            }
+        }
+        out.write("]}");
+        out.close();
+        synchronized (this) {
+            answeredAlertPages.add(start);
+        }
+    }
+
+    private void writeAlert(Writer out, int i, String url) throws IOException {
+        int plugin = i % plugins;
+        out.write("{\"alert\":\"Alert of plugin " + plugin + "\",\"risk\":\"" + RISKS[plugin % RISKS.length]
+                + "\",\"reliability\":\"Warning\",\"url\":\"" + url + "\",\"param\":\"p" + (plugin % 5)
+                + "\",\"evidence\":\"evidence " + i + "\",\"attack\":\"\",\"other\":\"\""
+                + ",\"description\":\"Description of plugin " + plugin + "\",\"solution\":\"Fix it\""
+                + ",\"reference\":\"\",\"pluginId\":\"" + (10000 + plugin) + "\"}");
+    }
+
+    private int countAlerts(String baseUrl) {
+        int count = 0;
+        int visible = visibleAlerts();
+        for (int i = 0; i < visible; i++) {
+            if (alertUrl(i).startsWith(baseUrl)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of alerts raised so far, they grow with the progress of the last active scan
+     */
+    private int visibleAlerts() {
+        Scan scan = scan("ascan", null);
+        return (scan == null) ? alerts : (int) ((long) alerts * scan.progress() / 100);
+    }
+
+    private String alertUrl(int i) {
+        List<String> sites = siteUrls;
+        return sites.get(i % sites.size()) + "page" + (i / sites.size() % pages);
+    }
+
+    private List<String> pageUrls() {
+        List<String> urls = new ArrayList<String>();
+        for (String siteUrl : siteUrls) {
+            for (int i = 0; i < pages; i++) {
+                urls.add(siteUrl + "page" + i);
+            }
+        }
+        return urls;
+    }
+
+    private synchronized String page(String url) {
+        String content = pageContents.get(url);
+        return (content != null) ? content : "<html><body>" + url + "</body></html>";
+    }
+
+    private String jsonList(String name, List<String> values) {
+        StringBuilder sb = new StringBuilder("{\"" + name + "\":[");
+        for (int i = 0; i < values.size(); i++) {
+            sb.append(i == 0 ? "\"" : ",\"").append(values.get(i)).append('"');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        OutputStream out = body(exchange, contentType, bytes.length);
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * Send the headers of a response
+     *
+     * @param length the length of the body, 0 if unknown
+     * @return the stream to write the body to, compressed if the client accepts gzip
+     */
+    private OutputStream body(HttpExchange exchange, String contentType, long length) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding == null || !acceptEncoding.contains("gzip")) {
+            exchange.sendResponseHeaders(200, length);
+            return exchange.getResponseBody();
+        }
+        compressed.incrementAndGet();
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(200, 0);
+        return new GZIPOutputStream(exchange.getResponseBody());
+    }
+
+    private void delay() {
+        if (responseDelayMillis > 0) {
+            try {
+                Thread.sleep(responseDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Map<String, String> params(String query) throws IOException {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                int eq = param.indexOf('=');
+                if (eq > 0) {
+                    params.put(param.substring(0, eq), URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+                }
+            }
+        }
+        return params;
+    }
+
+    private String nonNull(String value) {
+        return (value == null) ? "" : value;
+    }
+
+    /**
+     * A spider or active scan in progress
+     */
+    private class Scan {
+        private final String id = String.valueOf(nextScanId.getAndIncrement());
+        private final String component;
+        private final long started = System.currentTimeMillis();
+        private final long duration;
+        private volatile boolean stopped;
+
+        Scan(String component, long duration) {
+            this.component = component;
+            this.duration = duration;
+        }
+
+        /**
+         * @return the progress in percent, slow at the start and the end like a real scan
+         */
+        int progress() {
+            if (stopped || duration <= 0) {
+                return 100;
+            }
+            double t = Math.min(1.0, (System.currentTimeMillis() - started) / (double) duration);
+            return (int) Math.floor(100 * t * t * (3 - 2 * t));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test module for the fingerprints of incremental scans
+ */
+public class FingerprintStoreTest {
+
+    private static final String PAGE = "http://localhost/app/page";
+
+    private File directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = File.createTempFile("fingerprints", "");
+        directory.delete();
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void newPagesAreChanged() throws IOException {
+        FingerprintStore store = new FingerprintStore(directory);
+
+        assertTrue(store.update(PAGE, fingerprint("<html/>")));
+    }
+
+    @Test
+    public void takeOverAlertsOfUnchangedPages() throws IOException {
+        FingerprintStore first = new FingerprintStore(directory);
+        first.update(PAGE, fingerprint("<html/>"));
+        first.recording(new ListWriter()).write(alert(PAGE, "X-Frame-Options header not set"));
+        first.save();
+
+        FingerprintStore second = new FingerprintStore(directory);
+        assertFalse(second.update(PAGE, fingerprint("<html/>")));
+        ListWriter report = new ListWriter();
+        assertEquals(1, second.writeCachedAlerts("http://localhost/app", report));
+        assertEquals("X-Frame-Options header not set", report.alerts.get(0).get("alert"));
+        assertEquals(0, second.writeCachedAlerts("http://localhost/other", new ListWriter()));
+    }
+
+    @Test
+    public void takeOverAlertsOfAttackUrlsOfUnchangedPages() throws IOException {
+        FingerprintStore first = new FingerprintStore(directory);
+        first.update(PAGE, fingerprint("<html/>"));
+        first.update(PAGE + "?id=1", fingerprint("<html>1</html>"));
+        AlertWriter recording = first.recording(new ListWriter());
+        recording.write(alert(PAGE + "?q=%3Cscript%3E#top", "Cross Site Scripting"));
+        recording.write(alert(PAGE + "?id=1#top", "SQL Injection"));
+        recording.write(alert("http://localhost/app/unscanned?q=1", "Path Traversal"));
+        first.save();
+
+        FingerprintStore second = new FingerprintStore(directory);
+        second.update(PAGE, fingerprint("<html/>"));
+        second.update(PAGE + "?id=1", fingerprint("<html>1</html>"));
+        ListWriter report = new ListWriter();
+        assertEquals(2, second.writeCachedAlerts("", report));
+        List<String> urls = new ArrayList<String>();
+        for (Alert alert : report.alerts) {
+            urls.add(alert.getUrl());
+        }
+        assertTrue(urls.contains(PAGE + "?q=%3Cscript%3E#top"));
+        assertTrue(urls.contains(PAGE + "?id=1#top"));
+    }
+
+    @Test
+    public void doNotTakeOverAlertsReportedAgain() throws IOException {
+        FingerprintStore first = new FingerprintStore(directory);
+        first.update(PAGE, fingerprint("<html/>"));
+        first.recording(new ListWriter()).write(alert(PAGE, "Cookie without HttpOnly"));
+        first.save();
+
+        FingerprintStore second = new FingerprintStore(directory);
+        second.update(PAGE, fingerprint("<html/>"));
+        second.recording(new ListWriter()).write(alert(PAGE, "Cookie without HttpOnly"));
+
+        assertEquals(0, second.writeCachedAlerts("", new ListWriter()));
+    }
+
+    @Test
+    public void changedPagesAreScannedAgain() throws IOException {
+        FingerprintStore first = new FingerprintStore(directory);
+        first.update(PAGE, fingerprint("<html/>"));
+        first.save();
+
+        assertTrue(new FingerprintStore(directory).update(PAGE, fingerprint("<html><body/></html>")));
+    }
+
+    @Test
+    public void scanAgainPagesWhoseScanWasSkipped() throws IOException {
+        FingerprintStore first = new FingerprintStore(directory);
+        assertTrue(first.isChanged(PAGE, fingerprint("<html/>")));
+        first.save();
+
+        assertTrue(new FingerprintStore(directory).isChanged(PAGE, fingerprint("<html/>")));
+    }
+
+    @Test
+    public void recordPagesOnlyOnceScanned() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            FakeZapServer zap = fixture.getZap().scanDurations(0, 60000);
+            fixture.set("incrementalScan", true);
+            fixture.set("fingerprintDirectory", directory.getAbsolutePath());
+            fixture.set("maxScanDuration", 1);
+
+            // every page is new, the site is scanned at once and runs out of time
+            fixture.execute();
+            assertEquals(1, zap.count("ascan/action/scan"));
+
+            zap.scanDurations(0, 0);
+            fixture.set("maxScanDuration", 0);
+            fixture.execute();
+            assertEquals(2, zap.count("ascan/action/scan"));
+
+            fixture.execute();
+            assertEquals(2, zap.count("ascan/action/scan"));
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    @Test
+    public void scanChangedPagesOneByOne() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            FakeZapServer zap = fixture.getZap().scanDurations(0, 0);
+            fixture.set("incrementalScan", true);
+            fixture.set("fingerprintDirectory", directory.getAbsolutePath());
+            fixture.set("maxConcurrentScans", 2);
+            fixture.execute();
+
+            zap.changePage(ProcessZAPFixture.TARGET_URL + "page3", "<html>changed</html>");
+            zap.changePage(ProcessZAPFixture.TARGET_URL + "page7", "<html>changed</html>");
+            fixture.execute();
+            assertEquals(3, zap.count("ascan/action/scan"));
+            List<String> scanned = zap.getScannedUrls().subList(1, 3);
+            assertTrue(scanned.contains(ProcessZAPFixture.TARGET_URL + "page3"));
+            assertTrue(scanned.contains(ProcessZAPFixture.TARGET_URL + "page7"));
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    private String fingerprint(String response) throws IOException {
+        return FingerprintStore.fingerprint(new ByteArrayInputStream(response.getBytes("UTF-8")));
+    }
+
+    private Alert alert(String url, String name) {
+        Alert alert = new Alert();
+        alert.put("alert", name);
+        alert.put("url", url);
+        return alert;
+    }
+
+    private static class ListWriter implements AlertWriter {
+        private final List<Alert> alerts = new ArrayList<Alert>();
+
+        public void write(Alert alert) {
+            alerts.add(alert);
+        }
+
+        public void close() {
+        }
+    }
+}
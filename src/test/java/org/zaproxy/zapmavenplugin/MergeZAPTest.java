@@ -0,0 +1,164 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.shared.tools.test.ReflectiveSetter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test module for merging the reports of the shards of a scan
+ */
+public class MergeZAPTest {
+
+    private ProcessZAPFixture fixture;
+
+    private FakeZapServer zap;
+
+    private File reportsDirectory;
+
+    private MergeZAP mergeZap;
+
+    @Before
+    public void setup() throws Throwable {
+        fixture = new ProcessZAPFixture();
+        zap = fixture.getZap();
+        reportsDirectory = fixture.getReportsDirectory();
+        mergeZap = new MergeZAP();
+        ReflectiveSetter setter = new ReflectiveSetter(MergeZAP.class);
+        setter.setProperty("reportsDirectory", reportsDirectory.getAbsolutePath(), mergeZap);
+        setter.setProperty("mergedReportName", "merged", mergeZap);
+        setter.setProperty("format", "json", mergeZap);
+        setter.setProperty("shardCount", Integer.valueOf(2), mergeZap);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Test
+    public void mergeReportsOfShardedScan() throws Throwable {
+        zap.alerts(1000, 10).scanDurations(0, 0);
+        fixture.set("shardCount", Integer.valueOf(2));
+        Set<String> scanned = new HashSet<String>();
+        for (int shard = 0; shard < 2; shard++) {
+            fixture.set("shardIndex", Integer.valueOf(shard));
+            fixture.execute();
+            List<String> urls = zap.getScannedUrls();
+            assertTrue(urls.size() > scanned.size());
+            for (String url : urls.subList(scanned.size(), urls.size())) {
+                assertEquals(shard, ProcessZAP.shardOf(url, 2));
+            }
+            scanned.addAll(urls);
+        }
+        assertEquals(50, scanned.size());
+        assertEquals(50, zap.count("ascan/action/scan"));
+
+        mergeZap.execute();
+
+        assertEquals(1000, ProcessZAPFixture.countAlerts(new File(reportsDirectory, "merged.json")));
+        assertTrue(new File(reportsDirectory, "merged.html").length() > 0);
+    }
+
+    @Test
+    public void carryIncompleteScansIntoMergedReport() throws Throwable {
+        ScanStatus incomplete = new ScanStatus();
+        incomplete.incomplete("active scan of http://target.local/ stopped at 40%");
+        writeShard(0, new ScanStatus(), "http://target.local/a");
+        writeShard(1, incomplete, "http://target.local/b");
+
+        mergeZap.execute();
+
+        File merged = new File(reportsDirectory, "merged.json");
+        assertEquals(2, ProcessZAPFixture.countAlerts(merged));
+        AlertSource reader = ReportFiles.openAlerts(merged);
+        try {
+            while (reader.next() != null) {
+            }
+            assertEquals("active scan of http://target.local/ stopped at 40%", reader.getIncompleteReason());
+        } finally {
+            reader.close();
+        }
+        assertTrue(FileUtils.readFileToString(new File(reportsDirectory, "merged.xml"), "UTF-8")
+                .contains("<incomplete type=\"string\">active scan of http://target.local/ stopped at 40%"));
+    }
+
+    @Test
+    public void failOnReportOfEarlierBuild() throws Throwable {
+        scanShards();
+        File stale = new File(reportsDirectory, "ZAP20130712224300_00000000-0000-0000-0000-000000000000-shard1.json");
+        FileUtils.copyFile(new File(reportsDirectory, "merged.json"), stale);
+
+        try {
+            mergeZap.execute();
+            fail("A second report of shard 1 was merged");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage().startsWith("Two reports of shard 1 in ["));
+        }
+    }
+
+    @Test
+    public void failOnMissingShard() throws Throwable {
+        zap.alerts(100, 10).scanDurations(0, 0);
+        fixture.set("shardCount", Integer.valueOf(2));
+        fixture.set("shardIndex", Integer.valueOf(1));
+        fixture.execute();
+
+        try {
+            mergeZap.execute();
+            fail("The reports were merged without shard 0");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage().startsWith("No report of shard 0 of 2 in ["));
+        }
+    }
+
+    @Test
+    public void failOnShardOfLargerScan() throws Throwable {
+        scanShards();
+        File stale = new File(reportsDirectory, "ZAP20130712224300_00000000-0000-0000-0000-000000000000-shard2.json");
+        FileUtils.copyFile(new File(reportsDirectory, "merged.json"), stale);
+
+        try {
+            mergeZap.execute();
+            fail("The report of shard 2 of 2 was merged");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage().endsWith("is of shard 2, but the scan has 2 shards,"
+                    + " remove the reports of earlier builds"));
+        }
+    }
+
+    private void writeShard(int shard, ScanStatus status, String url) throws Exception {
+        JsonAlertWriter writer = new JsonAlertWriter(new FileOutputStream(new File(reportsDirectory, "ZAP-shard"
+                + shard + ".json")), status);
+        Alert alert = new Alert();
+        alert.put("url", url);
+        alert.put("pluginId", "40012");
+        writer.write(alert);
+        writer.close();
+    }
+
+    /**
+     * Scan both shards and merge their reports
+     */
+    private void scanShards() throws Throwable {
+        zap.alerts(100, 10).scanDurations(0, 0);
+        fixture.set("shardCount", Integer.valueOf(2));
+        for (int shard = 0; shard < 2; shard++) {
+            fixture.set("shardIndex", Integer.valueOf(shard));
+            fixture.execute();
+        }
+        mergeZap.execute();
+    }
+}
@@ -0,0 +1,127 @@
+package org.zaproxy.zapmavenplugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.shared.tools.test.ReflectiveSetter;
+
+/**
+ * A process-zap goal set up to spider, scan and report a site of a {@link FakeZapServer}, with the reports written to
+ * a temporary directory. Tests change the settings they are about with {@link #set(String, Object)}.
+ */
+public class ProcessZAPFixture {
+
+    public static final String TARGET_URL = "http://target.local/app/";
+
+    private final FakeZapServer zap;
+
+    private final File reportsDirectory;
+
+    private final ProcessZAP processZap = new ProcessZAP();
+
+    private final ReflectiveSetter setter = new ReflectiveSetter(ProcessZAP.class);
+
+    /**
+     * Start the stand-in ZAP with a site of 50 pages and set up process-zap for it
+     *
+     * @throws Throwable
+     */
+    public ProcessZAPFixture() throws Throwable {
+        zap = new FakeZapServer().site(TARGET_URL, 50).start();
+        reportsDirectory = File.createTempFile("zap-reports", "");
+        reportsDirectory.delete();
+        reportsDirectory.mkdirs();
+
+        set("zapProxyHost", "localhost");
+        set("zapProxyPort", zap.getPort());
+        set("targetURL", TARGET_URL);
+        set("spiderURL", true);
+        set("scanURL", true);
+        set("saveSession", false);
+        set("shutdownZAP", true);
+        set("reportAlerts", true);
+        set("rawReport", true);
+        set("reportsDirectory", reportsDirectory.getAbsolutePath());
+        set("format", "json");
+        set("alertPageSize", 0);
+        set("alertFetchThreads", 4);
+        set("writeMetrics", true);
+        set("spiderBudgetPercent", 30);
+        set("skip", false);
+    }
+
+    /**
+     * Set a parameter of process-zap
+     *
+     * @param name the name of the parameter
+     * @param value the value
+     * @return this
+     * @throws Throwable
+     */
+    public ProcessZAPFixture set(String name, Object value) throws Throwable {
+        setter.setProperty(name, value, processZap);
+        return this;
+    }
+
+    public FakeZapServer getZap() {
+        return zap;
+    }
+
+    public File getReportsDirectory() {
+        return reportsDirectory;
+    }
+
+    public ProcessZAP getProcessZap() {
+        return processZap;
+    }
+
+    public void execute() throws MojoExecutionException {
+        processZap.execute();
+    }
+
+    /**
+     * Find a report
+     *
+     * @param extension the end of the file name, e.g. ".json" for the JSON report, "-diff.json" or
+     *            "-target_local_app.json" for the report of a site
+     * @return the report
+     */
+    public File report(String extension) {
+        for (File file : reportsDirectory.listFiles()) {
+            if (file.getName().matches("ZAP\\d{14}_[0-9a-f-]{36}" + Pattern.quote(extension))) {
+                return file;
+            }
+        }
+        throw new AssertionError("No " + extension + " report in " + reportsDirectory);
+    }
+
+    /**
+     * @param report a JSON report
+     * @return the number of alerts in it
+     * @throws IOException
+     */
+    public static int countAlerts(File report) throws IOException {
+        AlertReader reader = new AlertReader(new FileInputStream(report));
+        try {
+            int count = 0;
+            while (reader.next() != null) {
+                count++;
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Stop the stand-in ZAP and delete the reports
+     */
+    public void stop() {
+        zap.stop();
+        FileUtils.deleteQuietly(reportsDirectory);
+    }
+}
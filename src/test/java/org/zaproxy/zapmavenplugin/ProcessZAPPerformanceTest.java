@@ -0,0 +1,90 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the process ZAP module end to end against a stand-in ZAP, to time it without a real ZAProxy
+ */
+public class ProcessZAPPerformanceTest {
+
+    private ProcessZAPFixture fixture;
+
+    private FakeZapServer zap;
+
+    private File reportsDirectory;
+
+    private ProcessZAP processZap;
+
+    @Before
+    public void setup() throws Throwable {
+        fixture = new ProcessZAPFixture();
+        zap = fixture.getZap();
+        reportsDirectory = fixture.getReportsDirectory();
+        processZap = fixture.getProcessZap();
+    }
+
+    @After
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Test
+    public void scanAndReportLargeAlertSet() throws Throwable {
+        zap.alerts(20000, 40).scanDurations(300, 800);
+        fixture.set("alertPageSize", 1000);
+
+        long start = System.currentTimeMillis();
+        processZap.execute();
+        processZap.getLog().info("Scanned and reported 20000 alerts in "
+                + (System.currentTimeMillis() - start) + " ms");
+
+        assertEquals(20000, ProcessZAPFixture.countAlerts(fixture.report(".json")));
+        assertTrue(fixture.report(".xml").length() > 0);
+        assertTrue(fixture.report(".html").length() > 0);
+        assertTrue(new File(reportsDirectory, "zap-metrics.json").isFile());
+        assertEquals(1, zap.count("spider/action/scan"));
+        assertEquals(1, zap.count("ascan/action/scan"));
+        assertEquals(1, zap.count("core/action/shutdown"));
+    }
+
+    @Test
+    public void reportThroughSlowApi() throws Throwable {
+        zap.alerts(2000, 10).scanDurations(0, 0).responseDelay(20);
+        fixture.set("alertPageSize", 100);
+
+        long start = System.currentTimeMillis();
+        processZap.execute();
+        processZap.getLog().info("Reported 2000 alerts in pages of 100 through a slow API in "
+                + (System.currentTimeMillis() - start) + " ms");
+
+        assertEquals(2000, ProcessZAPFixture.countAlerts(fixture.report(".json")));
+        assertEquals(20, zap.count("core/view/alerts"));
+    }
+
+    @Test
+    public void scanChangedSiteAtOnceWithIncrementalScan() throws Throwable {
+        zap.scanDurations(0, 1000);
+        long start = System.currentTimeMillis();
+        processZap.execute();
+        long baseline = System.currentTimeMillis() - start;
+
+        File fingerprints = new File(reportsDirectory, "fingerprints");
+        fixture.set("incrementalScan", true);
+        fixture.set("fingerprintDirectory", fingerprints.getAbsolutePath());
+        start = System.currentTimeMillis();
+        processZap.execute();
+        long incremental = System.currentTimeMillis() - start;
+        processZap.getLog().info("Scanned a site of 50 new pages in " + incremental + " ms, " + baseline
+                + " ms without incrementalScan");
+
+        // scanning the pages one by one would take 50 active scans of a second
+        assertEquals(2, zap.count("ascan/action/scan"));
+    }
+}
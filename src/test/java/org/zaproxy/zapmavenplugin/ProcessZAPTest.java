@@ -1,5 +1,18 @@
 package org.zaproxy.zapmavenplugin;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.shared.tools.test.ReflectiveSetter;
 import org.junit.Before;
 import org.junit.Test;
@@ -44,6 +57,92 @@ public class ProcessZAPTest {
         processZap.execute();
     }
 
+    @Test
+    public void applyScannerTuning() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            FakeZapServer zap = fixture.getZap().alerts(100, 10).scanDurations(0, 0);
+            fixture.set("spiderThreads", Integer.valueOf(8));
+            fixture.set("spiderMaxDepth", Integer.valueOf(3));
+            fixture.set("ascanThreadsPerHost", Integer.valueOf(16));
+            fixture.set("ascanDelayInMs", Integer.valueOf(0));
+
+            fixture.execute();
+
+            assertEquals("8", zap.getOption("spider", "ThreadCount"));
+            assertEquals("3", zap.getOption("spider", "MaxDepth"));
+            assertEquals("16", zap.getOption("ascan", "ThreadPerHost"));
+            assertEquals("0", zap.getOption("ascan", "DelayInMs"));
+            assertNull(zap.getOption("ascan", "HostPerScan"));
+            String metrics = FileUtils.readFileToString(new File(fixture.getReportsDirectory(), "zap-metrics.prom"));
+            assertTrue(metrics.contains("zap_ascan_option{option=\"ThreadPerHost\"} 16"));
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    @Test
+    public void fetchAlertsOnceForAllSites() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            FakeZapServer zap = fixture.getZap().sites(10, ProcessZAPFixture.TARGET_URL, "http://other.local/")
+                    .alerts(100, 10).scanDurations(0, 0);
+            fixture.set("targetURLs", Arrays.asList("http://other.local/"));
+
+            fixture.execute();
+
+            assertEquals(1, zap.count("core/view/alerts"));
+            assertEquals(100, ProcessZAPFixture.countAlerts(fixture.report(".json")));
+            assertEquals(50, ProcessZAPFixture.countAlerts(fixture.report("-target_local_app.json")));
+            assertEquals(50, ProcessZAPFixture.countAlerts(fixture.report("-other_local.json")));
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    @Test
+    public void scanSitesAtTheSameTime() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            FakeZapServer zap = fixture.getZap().sites(10, ProcessZAPFixture.TARGET_URL, "http://other.local/",
+                    "http://third.local/").alerts(90, 10).scanDurations(300, 1000);
+            fixture.set("targetURLs", Arrays.asList("http://other.local/", "http://third.local/"));
+            fixture.set("maxConcurrentScans", 2);
+
+            fixture.execute();
+
+            assertEquals(Arrays.asList("http://other.local/", ProcessZAPFixture.TARGET_URL, "http://third.local/"),
+                    sorted(zap.getScannedUrls()));
+            assertEquals(2, zap.getMaxRunningScans("ascan"));
+            assertEquals(90, ProcessZAPFixture.countAlerts(fixture.report(".json")));
+            assertSiteAlerts(fixture.report("-target_local_app.json"), ProcessZAPFixture.TARGET_URL, 30);
+            assertSiteAlerts(fixture.report("-other_local.json"), "http://other.local/", 30);
+            assertSiteAlerts(fixture.report("-third_local.json"), "http://third.local/", 30);
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    private List<String> sorted(List<String> urls) {
+        List<String> sorted = new ArrayList<String>(urls);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private void assertSiteAlerts(File report, String siteUrl, int expected) throws IOException {
+        AlertReader reader = new AlertReader(new FileInputStream(report));
+        try {
+            int count = 0;
+            for (Alert alert = reader.next(); alert != null; alert = reader.next()) {
+                assertTrue(alert.getUrl(), alert.getUrl().startsWith(siteUrl));
+                count++;
+            }
+            assertEquals(expected, count);
+        } finally {
+            reader.close();
+        }
+    }
+
     private void prepareStartZap(ProcessZAP processZap) throws Throwable {
         ReflectiveSetter setter = new ReflectiveSetter(ProcessZAP.class);
         setter.setProperty("zapProxyHost", ZAP_PROXY_HOST, processZap);
@@ -0,0 +1,138 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.shared.tools.test.ReflectiveSetter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test module for compressed reports and the readers of earlier reports
+ */
+public class ReportFilesTest {
+
+    private ProcessZAPFixture fixture;
+
+    private FakeZapServer zap;
+
+    @Before
+    public void setup() throws Throwable {
+        fixture = new ProcessZAPFixture();
+        zap = fixture.getZap().alerts(1000, 10).scanDurations(0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Test
+    public void writeCompressedReports() throws Throwable {
+        fixture.execute();
+        String xml = FileUtils.readFileToString(fixture.report(".xml"), "UTF-8");
+        String html = FileUtils.readFileToString(fixture.report(".html"), "UTF-8");
+        String json = FileUtils.readFileToString(fixture.report(".json"), "UTF-8");
+        FileUtils.cleanDirectory(fixture.getReportsDirectory());
+
+        fixture.set("compressReports", true);
+        fixture.execute();
+
+        assertEquals(xml, uncompress(fixture.report(".xml.gz")));
+        assertEquals(html, uncompress(fixture.report(".html.gz")));
+        assertEquals(json, uncompress(fixture.report(".json.gz")));
+        assertEquals(1000, count(fixture.report(".json.gz")));
+    }
+
+    @Test
+    public void restoreCompressedReportsFromScanCache() throws Throwable {
+        File war = new File(fixture.getReportsDirectory(), "app.war");
+        FileUtils.writeStringToFile(war, "classes", "UTF-8");
+        File cache = new File(fixture.getReportsDirectory(), "cache");
+        fixture.set("compressReports", true);
+        fixture.set("cacheInputs", Collections.singletonList(war.getPath()));
+        fixture.set("scanCacheDirectory", cache.getPath());
+        fixture.set("failOnRisk", "High");
+        zap.alerts(0, 10);
+        fixture.execute();
+        File xml = fixture.report(".xml.gz");
+        String report = uncompress(xml);
+        xml.delete();
+
+        fixture.execute();
+
+        assertEquals(1, zap.count("ascan/action/scan"));
+        assertEquals(report, uncompress(fixture.report(".xml.gz")));
+    }
+
+    @Test
+    public void mergeCompressedShardReports() throws Throwable {
+        fixture.set("compressReports", true);
+        fixture.set("shardCount", Integer.valueOf(2));
+        for (int shard = 0; shard < 2; shard++) {
+            fixture.set("shardIndex", Integer.valueOf(shard));
+            fixture.execute();
+        }
+        MergeZAP mergeZap = new MergeZAP();
+        ReflectiveSetter setter = new ReflectiveSetter(MergeZAP.class);
+        setter.setProperty("reportsDirectory", fixture.getReportsDirectory().getAbsolutePath(), mergeZap);
+        setter.setProperty("mergedReportName", "merged", mergeZap);
+        setter.setProperty("format", "json", mergeZap);
+
+        mergeZap.execute();
+
+        assertEquals(1000, ProcessZAPFixture.countAlerts(new File(fixture.getReportsDirectory(), "merged.json")));
+    }
+
+    @Test
+    public void diffWithCompressedBaseline() throws Throwable {
+        fixture.set("compressReports", true);
+        fixture.execute();
+        File baseline = File.createTempFile("baseline", ".xml.gz");
+        try {
+            FileUtils.copyFile(fixture.report(".xml.gz"), baseline);
+            FileUtils.cleanDirectory(fixture.getReportsDirectory());
+
+            zap.alerts(800, 10);
+            fixture.set("baselineReport", baseline.getPath());
+            fixture.execute();
+
+            assertTrue(uncompress(fixture.report("-diff.json.gz")).endsWith(
+                    "\"counts\":{\"baseline\":1000,\"new\":0,\"resolved\":200}}"));
+        } finally {
+            baseline.delete();
+        }
+    }
+
+    private String uncompress(File report) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(report));
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private int count(File report) throws IOException {
+        AlertSource alerts = ReportFiles.openAlerts(report);
+        try {
+            int count = 0;
+            while (alerts.next() != null) {
+                count++;
+            }
+            return count;
+        } finally {
+            alerts.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test module for failing the build on alerts at or above a risk
+ */
+public class RiskGateTest {
+
+    private ProcessZAPFixture fixture;
+
+    private FakeZapServer zap;
+
+    @Before
+    public void setup() throws Throwable {
+        fixture = new ProcessZAPFixture();
+        zap = fixture.getZap();
+    }
+
+    @After
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Test
+    public void countAlertsAtOrAboveThreshold() {
+        RiskGate gate = new RiskGate("medium");
+        gate.write(alert("Low"));
+        assertFalse(gate.isTripped());
+
+        for (int i = 0; i < 150; i++) {
+            gate.write(alert((i % 2 == 0) ? "High" : "Medium"));
+        }
+        gate.write(alert("Informational"));
+
+        assertTrue(gate.isTripped());
+        assertEquals("Medium", gate.getThreshold());
+        assertEquals(150, gate.getCount());
+        assertEquals(100, gate.getEvidence().size());
+        assertEquals("High", gate.getEvidence().get(0).getRisk());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownRisk() {
+        new RiskGate("Critical");
+    }
+
+    @Test
+    public void stopScanAtFirstHighRiskAlert() throws Throwable {
+        // the stand-in ZAP raises all alerts before the active scan, so the spider is stopped
+        zap.alerts(1000, 10).scanDurations(60000, 60000);
+        fixture.set("alertPageSize", 100);
+        fixture.set("failOnRisk", "High");
+        fixture.set("failFast", true);
+        fixture.set("alertHarvestInterval", 100L);
+
+        try {
+            fixture.execute();
+            fail("High risk alerts did not fail the build");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage().contains("at or above risk High, the scan was stopped"));
+        }
+
+        assertEquals(1, zap.count("spider/action/stop"));
+        assertEquals(0, zap.count("ascan/action/scan"));
+        assertEquals(1, zap.count("core/action/shutdown"));
+        assertTrue(ProcessZAPFixture.countAlerts(fixture.report("-risk-gate.json")) > 0);
+        assertTrue(FileUtils.readFileToString(fixture.report("-risk-gate.json")).contains("\"risk\":\"High\""));
+    }
+
+    @Test
+    public void failAfterFullScanOnRisk() throws Throwable {
+        zap.alerts(100, 10).scanDurations(0, 0);
+        fixture.set("failOnRisk", "medium");
+
+        try {
+            fixture.execute();
+            fail("Medium risk alerts did not fail the build");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage().startsWith("60 alerts at or above risk Medium, see"));
+        }
+        assertEquals(0, zap.count("ascan/action/stop"));
+        assertEquals(100, ProcessZAPFixture.countAlerts(fixture.report(".json")));
+        assertEquals(60, ProcessZAPFixture.countAlerts(fixture.report("-risk-gate.json")));
+    }
+
+    @Test
+    public void cacheOnlyScansWhichPassTheGate() throws Throwable {
+        File war = new File(fixture.getReportsDirectory(), "app.war");
+        FileUtils.writeStringToFile(war, "classes", "UTF-8");
+        File cache = new File(fixture.getReportsDirectory(), "cache");
+        zap.alerts(100, 10).scanDurations(0, 0);
+        fixture.set("cacheInputs", Collections.singletonList(war.getPath()));
+        fixture.set("scanCacheDirectory", cache.getPath());
+        fixture.set("rawReport", false);
+        fixture.set("failOnRisk", "High");
+        for (int build = 1; build <= 2; build++) {
+            try {
+                fixture.execute();
+                fail("High risk alerts did not fail the build");
+            } catch (MojoExecutionException e) {
+                assertTrue(e.getMessage().contains("at or above risk High"));
+            }
+            assertEquals(build, zap.count("ascan/action/scan"));
+        }
+
+        zap.alerts(0, 10);
+        fixture.execute();
+        fixture.execute();
+        assertEquals(3, zap.count("ascan/action/scan"));
+
+        fixture.set("failOnRisk", "Low");
+        fixture.execute();
+        assertEquals(4, zap.count("ascan/action/scan"));
+    }
+
+    private Alert alert(String risk) {
+        Alert alert = new Alert();
+        alert.put("alert", "Alert of risk " + risk);
+        alert.put("risk", risk);
+        return alert;
+    }
+}
@@ -0,0 +1,95 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Test module for splitting the time budget of a scan
+ */
+public class ScanBudgetTest {
+
+    private static final String TARGET_URL = ProcessZAPFixture.TARGET_URL;
+
+    @Test
+    public void noLimit() {
+        ScanBudget budget = new ScanBudget(0, 30, 2, 1);
+
+        assertFalse(budget.isLimited());
+        assertEquals(Long.MAX_VALUE, budget.startTarget());
+        assertEquals(Long.MAX_VALUE, budget.spiderDeadline(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shareTimeBetweenSitesAndSpider() {
+        long start = System.currentTimeMillis();
+        ScanBudget budget = new ScanBudget(600000, 30, 4, 2);
+
+        long first = budget.startTarget() - start;
+        long spider = budget.spiderDeadline(start + first) - start;
+
+        // 4 sites, 2 at the same time: every site gets about half of the time
+        assertTrue(first > 290000 && first <= 300000);
+        assertTrue(spider > 80000 && spider <= 90000);
+    }
+
+    @Test
+    public void stopScanWhenOutOfTime() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            FakeZapServer zap = fixture.getZap().alerts(100, 10).scanDurations(300, 60000);
+            fixture.set("maxScanDuration", 2);
+
+            fixture.execute();
+
+            assertEquals(0, zap.count("spider/action/stop"));
+            assertEquals(1, zap.count("ascan/action/stop"));
+            assertEquals(100, ProcessZAPFixture.countAlerts(fixture.report(".json")));
+            assertTrue(FileUtils.readFileToString(fixture.report(".json")).contains(
+                    "\"incomplete\":\"active scan of " + TARGET_URL + " stopped after"));
+            assertTrue(FileUtils.readFileToString(fixture.report(".xml")).contains("<incomplete type=\"string\">"));
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    @Test
+    public void markDerivedReportsOfStoppedScanIncomplete() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            fixture.getZap().alerts(100, 10).scanDurations(300, 60000);
+            File baseline = new File(fixture.getReportsDirectory(), "baseline.json");
+            new JsonAlertWriter(new FileOutputStream(baseline)).close();
+            fixture.set("maxScanDuration", 2);
+            fixture.set("rawReport", false);
+            fixture.set("aggregateAlerts", true);
+            fixture.set("alertStore", true);
+            fixture.set("baselineReport", baseline.getAbsolutePath());
+
+            fixture.execute();
+
+            String reason = "active scan of " + TARGET_URL + " stopped after";
+            assertTrue(FileUtils.readFileToString(fixture.report("-grouped.xml")).contains(
+                    "<incomplete type=\"string\">" + reason));
+            assertTrue(FileUtils.readFileToString(fixture.report("-grouped.json")).contains(
+                    "\"incomplete\":\"" + reason));
+            assertTrue(FileUtils.readFileToString(fixture.report("-diff.json")).contains(
+                    "\"incomplete\":\"" + reason));
+            AlertStore store = new AlertStore(fixture.report(".alerts"));
+            try {
+                assertEquals(100, store.size());
+                assertTrue(store.getIncompleteReason().startsWith(reason));
+            } finally {
+                store.close();
+            }
+        } finally {
+            fixture.stop();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test module for the metrics of a build
+ */
+public class ScanMetricsTest {
+
+    private File directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = File.createTempFile("zap-metrics", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void writeJsonAndPrometheus() throws IOException {
+        ScanMetrics metrics = new ScanMetrics();
+        metrics.recordRate("zap_spider", "urls", "http://localhost/a", 2000, 50);
+        Map<String, String> labels = new LinkedHashMap<String, String>();
+        labels.put("target", "say \"hi\"");
+        labels.put("kind", "xml");
+        metrics.record("zap_report_bytes", labels, 1024);
+        metrics.record("zap_spider_urls", "target", "http://localhost/b", 10);
+
+        metrics.write(directory);
+
+        assertEquals("# TYPE zap_spider_duration_seconds gauge\n"
+                + "zap_spider_duration_seconds{target=\"http://localhost/a\"} 2.0\n"
+                + "# TYPE zap_spider_urls gauge\n"
+                + "zap_spider_urls{target=\"http://localhost/a\"} 50.0\n"
+                + "zap_spider_urls{target=\"http://localhost/b\"} 10.0\n"
+                + "# TYPE zap_spider_urls_per_second gauge\n"
+                + "zap_spider_urls_per_second{target=\"http://localhost/a\"} 25.0\n"
+                + "# TYPE zap_report_bytes gauge\n"
+                + "zap_report_bytes{target=\"say \\\"hi\\\"\",kind=\"xml\"} 1024.0\n",
+                FileUtils.readFileToString(new File(directory, "zap-metrics.prom"), "UTF-8"));
+        String json = FileUtils.readFileToString(new File(directory, "zap-metrics.json"), "UTF-8");
+        assertTrue(json.startsWith("{\"metrics\":[{\"name\":\"zap_spider_duration_seconds\","
+                + "\"target\":\"http://localhost/a\",\"value\":2.0},"));
+        assertTrue(json.contains("{\"name\":\"zap_report_bytes\",\"target\":\"say \\\"hi\\\"\",\"kind\":\"xml\","
+                + "\"value\":1024.0}"));
+    }
+
+    @Test
+    public void recordOnceOnlyOnce() throws IOException {
+        ScanMetrics metrics = new ScanMetrics();
+        metrics.recordOnce("zap_scan_incomplete", "target", "http://localhost/a", 1);
+        metrics.recordOnce("zap_scan_incomplete", "target", "http://localhost/a", 1);
+        metrics.recordOnce("zap_scan_incomplete", "target", "http://localhost/b", 1);
+        metrics.record("zap_scan_cache_hit", null, null, 0);
+
+        metrics.write(directory);
+
+        assertEquals("# TYPE zap_scan_incomplete gauge\n"
+                + "zap_scan_incomplete{target=\"http://localhost/a\"} 1.0\n"
+                + "zap_scan_incomplete{target=\"http://localhost/b\"} 1.0\n"
+                + "# TYPE zap_scan_cache_hit gauge\n"
+                + "zap_scan_cache_hit 0.0\n",
+                FileUtils.readFileToString(new File(directory, "zap-metrics.prom"), "UTF-8"));
+    }
+
+    @Test
+    public void writeMetricsOfScan() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            fixture.getZap().alerts(100, 10).scanDurations(0, 0);
+
+            fixture.execute();
+
+            Map<String, String> metrics = readPrometheus(new File(fixture.getReportsDirectory(), "zap-metrics.prom"));
+            String target = "{target=\"" + ProcessZAPFixture.TARGET_URL + "\"}";
+            assertEquals("50.0", metrics.get("zap_spider_urls" + target));
+            assertEquals("2500.0", metrics.get("zap_ascan_requests" + target));
+            assertTrue(metrics.containsKey("zap_ascan_duration_seconds" + target));
+            assertEquals("100.0", metrics.get("zap_report_alerts{target=\"all\"}"));
+            File xml = fixture.report(".xml");
+            assertEquals(xml.length() + ".0", metrics.get("zap_report_bytes{target=\"all\",kind=\"xml\"}"));
+            assertNull(metrics.get("zap_scan_incomplete" + target));
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    @Test
+    public void writeEachSeriesOnce() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            fixture.getZap().sites(10, "http://one.local/", "http://two.local/").alerts(100, 10)
+                    .scanDurations(60000, 60000);
+            fixture.set("targetURLs", Arrays.asList("http://one.local/", "http://two.local/"));
+            fixture.set("targetURL", null);
+            fixture.set("ascanThreadsPerHost", 3);
+            fixture.set("maxScanDuration", 1);
+
+            fixture.execute();
+
+            List<?> lines = FileUtils.readLines(new File(fixture.getReportsDirectory(), "zap-metrics.prom"), "UTF-8");
+            assertEquals(lines.size(), new HashSet<Object>(lines).size());
+            Map<String, String> metrics = readPrometheus(new File(fixture.getReportsDirectory(), "zap-metrics.prom"));
+            assertEquals("3.0", metrics.get("zap_ascan_option{option=\"ThreadPerHost\"}"));
+            assertEquals("1.0", metrics.get("zap_scan_incomplete{target=\"http://one.local/\"}"));
+            assertTrue(metrics.containsKey("zap_report_bytes{target=\"http://two.local/\",kind=\"html\"}"));
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    /**
+     * @return the values of a Prometheus text file by metric name and labels
+     */
+    private Map<String, String> readPrometheus(File file) throws IOException {
+        Map<String, String> metrics = new LinkedHashMap<String, String>();
+        List<?> lines = FileUtils.readLines(file, "UTF-8");
+        for (Object line : lines) {
+            String sample = (String) line;
+            if (!sample.startsWith("#")) {
+                int space = sample.lastIndexOf(' ');
+                metrics.put(sample.substring(0, space), sample.substring(space + 1));
+            }
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,84 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+/**
+ * Test module for following the progress of a scan
+ */
+public class ScanProgressTrackerTest {
+
+    @Test
+    public void pollLessOftenWhileStalled() throws Exception {
+        RecordingTracker tracker = new RecordingTracker(10, 10, 10, 10, 20, 100);
+
+        tracker.waitForCompletion();
+
+        // the interval doubles while the progress stands still and is reset when it moves on
+        assertEquals(Arrays.asList(100L, 200L, 400L, 800L, 100L), tracker.intervals);
+    }
+
+    @Test
+    public void pollAtLeastEveryFiveSeconds() throws Exception {
+        RecordingTracker tracker = new RecordingTracker(10, 10, 10, 10, 10, 10, 10, 10, 10, 100);
+
+        tracker.waitForCompletion();
+
+        assertEquals(Arrays.asList(100L, 200L, 400L, 800L, 1600L, 3200L, 5000L, 5000L, 5000L), tracker.intervals);
+    }
+
+    @Test
+    public void keepInterruptFlag() throws Exception {
+        ScanProgressTracker tracker = new ScanProgressTracker(new StatusApi(50), "ascan", "0", new SystemStreamLog());
+
+        Thread.currentThread().interrupt();
+        try {
+            tracker.waitForCompletion();
+            fail("The interrupted wait did not end");
+        } catch (InterruptedException e) {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    /**
+     * A ZAP API answering the status views with the given progress, one after the other
+     */
+    private static class StatusApi extends ZapApi {
+        private final LinkedList<Integer> progress = new LinkedList<Integer>();
+
+        StatusApi(Integer... progress) {
+            super("localhost", 0, new SystemStreamLog());
+            this.progress.addAll(Arrays.asList(progress));
+        }
+
+        @Override
+        public String view(String component, String name, String... params) {
+            return String.valueOf(progress.size() > 1 ? progress.removeFirst() : progress.getFirst());
+        }
+    }
+
+    /**
+     * A tracker recording the intervals between its polls instead of waiting
+     */
+    private static class RecordingTracker extends ScanProgressTracker {
+        private final List<Long> intervals = new ArrayList<Long>();
+
+        RecordingTracker(Integer... progress) {
+            super(new StatusApi(progress), "ascan", "0", new SystemStreamLog());
+        }
+
+        @Override
+        protected void sleep(long millis) {
+            intervals.add(millis);
+        }
+    }
+}
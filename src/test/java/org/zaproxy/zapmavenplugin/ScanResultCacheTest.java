@@ -0,0 +1,155 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test module for the cache of scan results
+ */
+public class ScanResultCacheTest {
+
+    private File directory;
+
+    private File war;
+
+    private File report;
+
+    @Before
+    public void setup() throws IOException {
+        directory = File.createTempFile("scan-cache", "");
+        directory.delete();
+        war = new File(directory, "build/app.war");
+        FileUtils.writeStringToFile(war, "classes", "UTF-8");
+        report = new File(directory, "build/ZAP1.xml");
+        FileUtils.writeStringToFile(report, "<o/>", "UTF-8");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void digestOfArtifactsAndSettings() throws IOException {
+        String key = ScanResultCache.digest(inputs(), "scanURL=true");
+
+        assertEquals(key, ScanResultCache.digest(inputs(), "scanURL=true"));
+        assertFalse(key.equals(ScanResultCache.digest(inputs(), "scanURL=false")));
+        FileUtils.writeStringToFile(war, "changed classes", "UTF-8");
+        assertFalse(key.equals(ScanResultCache.digest(inputs(), "scanURL=true")));
+    }
+
+    @Test
+    public void restoreStoredReports() throws IOException {
+        ScanResultCache cache = cache(0, 0);
+        File reports = new File(directory, "reports");
+        assertNull(cache.restore("key", reports));
+
+        cache.store("key", Collections.singletonList(report), "ZAP1");
+
+        assertEquals("ZAP1", cache.restore("key", reports));
+        assertEquals("<o/>", FileUtils.readFileToString(new File(reports, "ZAP1.xml"), "UTF-8"));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        ScanResultCache cache = cache(2, 0);
+        File reports = new File(directory, "reports");
+        cache.store("first", Collections.singletonList(report), "");
+        cache.store("second", Collections.singletonList(report), "");
+        new File(directory, "cache/first").setLastModified(System.currentTimeMillis() - 60000);
+        new File(directory, "cache/second").setLastModified(System.currentTimeMillis() - 30000);
+        cache.restore("first", reports);
+
+        cache.store("third", Collections.singletonList(report), "");
+
+        assertTrue(new File(directory, "cache/first").isDirectory());
+        assertFalse(new File(directory, "cache/second").exists());
+        assertTrue(new File(directory, "cache/third").isDirectory());
+    }
+
+    @Test
+    public void evictOverSize() throws IOException {
+        ScanResultCache cache = cache(0, 1);
+        cache.store("first", Collections.singletonList(report), "");
+        new File(directory, "cache/first").setLastModified(System.currentTimeMillis() - 60000);
+
+        cache.store("second", Collections.singletonList(report), "");
+
+        assertFalse(new File(directory, "cache/first").exists());
+        assertTrue(new File(directory, "cache/second").isDirectory());
+    }
+
+    @Test
+    public void restoreReportsOfUnchangedBuild() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            FakeZapServer zap = fixture.getZap().alerts(500, 10).scanDurations(0, 0);
+            fixture.set("cacheInputs", Collections.singletonList(war.getPath()));
+            fixture.set("scanCacheDirectory", new File(directory, "cache").getPath());
+            fixture.execute();
+            File report = fixture.report(".json");
+            report.delete();
+
+            fixture.execute();
+
+            assertEquals(report, fixture.report(".json"));
+            assertEquals(500, ProcessZAPFixture.countAlerts(report));
+            assertEquals(1, zap.count("ascan/action/scan"));
+            assertEquals(1, zap.count("core/view/alerts"));
+            assertEquals(2, zap.count("core/action/shutdown"));
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    @Test
+    public void scanAgainWithOtherScannerSettings() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            FakeZapServer zap = fixture.getZap().alerts(100, 10).scanDurations(0, 0);
+            fixture.set("cacheInputs", Collections.singletonList(war.getPath()));
+            fixture.set("scanCacheDirectory", new File(directory, "cache").getPath());
+            fixture.execute();
+
+            fixture.set("ascanThreadsPerHost", Integer.valueOf(4));
+            fixture.execute();
+            assertEquals(2, zap.count("ascan/action/scan"));
+            fixture.set("spiderMaxDepth", Integer.valueOf(2));
+            fixture.execute();
+            assertEquals(3, zap.count("ascan/action/scan"));
+            fixture.set("maxScanDuration", 600);
+            fixture.execute();
+            assertEquals(4, zap.count("ascan/action/scan"));
+            fixture.set("spiderBudgetPercent", 50);
+            fixture.execute();
+            assertEquals(5, zap.count("ascan/action/scan"));
+
+            fixture.execute();
+            assertEquals(5, zap.count("ascan/action/scan"));
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    private ScanResultCache cache(int maxEntries, long maxBytes) {
+        return new ScanResultCache(new File(directory, "cache"), maxEntries, maxBytes, new SystemStreamLog());
+    }
+
+    private List<File> inputs() {
+        return Collections.singletonList(war);
+    }
+}
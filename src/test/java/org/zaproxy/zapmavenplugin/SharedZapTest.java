@@ -0,0 +1,100 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zaproxy.clientapi.core.ClientApi;
+
+/**
+ * Test module for sharing one ZAProxy between the modules of a reactor build
+ */
+public class SharedZapTest {
+
+    private ProcessZAPFixture fixture;
+
+    private FakeZapServer zap;
+
+    @Before
+    public void setup() throws Throwable {
+        fixture = new ProcessZAPFixture();
+        zap = fixture.getZap().alerts(100, 10).scanDurations(0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        SharedZap shared = SharedZap.get("localhost", zap.getPort());
+        if (shared != null) {
+            shared.stopped();
+        }
+        fixture.stop();
+    }
+
+    @Test
+    public void releaseAfterLastModule() {
+        SharedZap shared = SharedZap.register("localhost", zap.getPort(), null, null, 3);
+        assertSame(shared, SharedZap.get("localhost", zap.getPort()));
+
+        shared.attach();
+        assertFalse(shared.release());
+        assertFalse(shared.release());
+        assertEquals(0, shared.getHolders());
+        shared.attach();
+        assertTrue(shared.release());
+
+        shared.stopped();
+        assertNull(SharedZap.get("localhost", zap.getPort()));
+    }
+
+    @Test
+    public void keepSharedZapForNextModule() throws Throwable {
+        fixture.set("shareZap", true);
+        SharedZap shared = SharedZap.register("localhost", zap.getPort(), null, null, 2);
+
+        fixture.execute();
+        assertEquals(1, zap.count("core/action/newSession"));
+        assertEquals(0, zap.count("core/action/shutdown"));
+
+        shared.attach();
+        fixture.execute();
+        assertEquals(1, zap.count("core/action/newSession"));
+        assertEquals(1, zap.count("core/action/shutdown"));
+        assertNull(SharedZap.get("localhost", zap.getPort()));
+    }
+
+    @Test
+    public void shutDownAfterLastModuleSkips() throws Throwable {
+        fixture.set("shareZap", true);
+        SharedZap.register("localhost", zap.getPort(), null, new ClientApi("localhost", zap.getPort()), 2);
+
+        fixture.execute();
+        assertEquals(1, zap.count("core/action/newSession"));
+        assertEquals(0, zap.count("core/action/shutdown"));
+
+        fixture.set("skip", true);
+        fixture.execute();
+        assertEquals(1, zap.count("core/action/shutdown"));
+        assertNull(SharedZap.get("localhost", zap.getPort()));
+    }
+
+    @Test
+    public void countModuleWhichSkipsAsReleased() throws Throwable {
+        fixture.set("shareZap", true);
+        SharedZap.register("localhost", zap.getPort(), null, null, 2);
+
+        fixture.set("skip", true);
+        fixture.execute();
+        assertEquals(0, zap.count("core/action/shutdown"));
+
+        fixture.set("skip", false);
+        fixture.execute();
+        assertEquals(0, zap.count("core/action/newSession"));
+        assertEquals(1, zap.count("core/action/shutdown"));
+        assertNull(SharedZap.get("localhost", zap.getPort()));
+    }
+}
@@ -1,12 +1,29 @@
 package org.zaproxy.zapmavenplugin;
 
-import java.io.File;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
 import org.apache.maven.shared.tools.test.ReflectiveSetter;
 import org.easymock.EasyMock;
 import org.junit.Before;
@@ -33,7 +50,9 @@ public class StartZAPTest {
     private static final int ZAP_SLEEP = 0;
 
     final ClientApi clientApi = new ClientApi(ZAP_PROXY_HOST, ZAP_PROXY_PORT);
-    Runtime runtimeMock = EasyMock.createMock(Runtime.class);
+    final List<List<String>> launched = new ArrayList<List<String>>();
+    final List<RunningProcess> processes = new ArrayList<RunningProcess>();
+    private ZapApi zapApi = new StartingZapApi(0);
 
     private StartZAP startZap;
 
@@ -46,8 +65,16 @@ public class StartZAPTest {
             }
 
             @Override
-            protected Runtime getRuntime() {
-                return runtimeMock;
+            protected ZapApi getZapApi(int port) {
+                return zapApi;
+            }
+
+            @Override
+            protected Process launch(ProcessBuilder builder) {
+                launched.add(builder.command());
+                RunningProcess process = new RunningProcess();
+                processes.add(process);
+                return process;
             };
         };
     }
@@ -66,11 +93,96 @@ public class StartZAPTest {
     @Test
     public void startServer() throws Throwable {
         prepareStartZap(startZap, NO_NEW_SESSION);
-        EasyMock.expect(runtimeMock.exec(EasyMock.eq(zapApiPath()), EasyMock.anyObject(String[].class), EasyMock.anyObject(File.class))).andReturn(null);
 
-        EasyMock.replay(runtimeMock);
         startZap.execute();
-        EasyMock.verify(runtimeMock);
+        List<List<String>> expected = new ArrayList<List<String>>();
+        expected.add(Arrays.asList(zapApiPath()));
+        assertEquals(expected, launched);
+    }
+
+    @Test
+    public void startPoolOnFollowingPorts() throws Throwable {
+        prepareStartZap(startZap, NO_NEW_SESSION);
+        new ReflectiveSetter(StartZAP.class).setProperty("zapInstances", 2, startZap);
+
+        startZap.execute();
+        List<List<String>> expected = new ArrayList<List<String>>();
+        expected.add(Arrays.asList(zapApiPath(), "-port", "8080"));
+        expected.add(Arrays.asList(zapApiPath(), "-port", "8081"));
+        assertEquals(expected, launched);
+    }
+
+    @Test
+    public void waitUntilZapAnswers() throws Throwable {
+        prepareStartZap(startZap, NO_NEW_SESSION);
+        new ReflectiveSetter(StartZAP.class).setProperty("zapSleep", 10000, startZap);
+        StartingZapApi startingZap = new StartingZapApi(1);
+        zapApi = startingZap;
+
+        startZap.execute();
+        assertEquals(2, startingZap.probes);
+        assertEquals(1, launched.size());
+    }
+
+    @Test
+    public void stopAllWhenZapDoesNotAnswer() throws Throwable {
+        prepareStartZap(startZap, NO_NEW_SESSION);
+        new ReflectiveSetter(StartZAP.class).setProperty("zapInstances", 2, startZap);
+        new ReflectiveSetter(StartZAP.class).setProperty("shareZap", true, startZap);
+        zapApi = new StartingZapApi(Integer.MAX_VALUE);
+
+        try {
+            startZap.execute();
+            fail("ZAProxy did not answer, but the start succeeded");
+        } catch (MojoExecutionException e) {
+            assertEquals("ZAProxy on port 8080 did not answer within 0 ms", e.getMessage());
+        }
+        assertEquals(2, processes.size());
+        assertTrue(processes.get(0).destroyed);
+        assertTrue(processes.get(1).destroyed);
+        assertNull(SharedZap.get(ZAP_PROXY_HOST, ZAP_PROXY_PORT));
+    }
+
+    @Test
+    public void shareZapWithFollowingModules() throws Throwable {
+        prepareStartZap(startZap, NO_NEW_SESSION);
+        new ReflectiveSetter(StartZAP.class).setProperty("shareZap", true, startZap);
+
+        try {
+            startZap.execute();
+            startZap.execute();
+            assertEquals(1, launched.size());
+            assertEquals(2, SharedZap.get(ZAP_PROXY_HOST, ZAP_PROXY_PORT).getHolders());
+        } finally {
+            SharedZap.get(ZAP_PROXY_HOST, ZAP_PROXY_PORT).stopped();
+        }
+    }
+
+    @Test
+    public void countOnlyProcessZapExecutionsOfReactor() throws Throwable {
+        List<MavenProject> reactor = new ArrayList<MavenProject>();
+        reactor.add(module("start-zap", "process-zap"));
+        reactor.add(module("start-zap"));
+        reactor.add(module("merge-zap-reports"));
+        reactor.add(module("process-zap"));
+        new ReflectiveSetter(StartZAP.class).setProperty("reactorProjects", reactor, startZap);
+
+        assertEquals(2, startZap.zapUsers());
+    }
+
+    @Test
+    public void rejectUnknownLogLevelBeforeLaunching() throws Throwable {
+        prepareStartZap(startZap, NO_NEW_SESSION);
+        new ReflectiveSetter(StartZAP.class).setProperty("zapLogLevel", "VERBOSE", startZap);
+
+        try {
+            startZap.execute();
+            fail("The unknown zapLogLevel was accepted");
+        } catch (MojoExecutionException e) {
+            assertEquals("Unknown zapLogLevel [VERBOSE], use one of TRACE, DEBUG, INFO, WARN, ERROR, FATAL or OFF",
+                    e.getMessage());
+        }
+        assertTrue(launched.isEmpty());
     }
 
     @Test
@@ -79,6 +191,20 @@ public class StartZAPTest {
         startZap.execute();
     }
 
+    private MavenProject module(String... goals) {
+        PluginExecution execution = new PluginExecution();
+        for (String goal : goals) {
+            execution.addGoal(goal);
+        }
+        Plugin plugin = new Plugin();
+        plugin.setArtifactId("zap-maven-plugin");
+        plugin.addExecution(execution);
+        Model model = new Model();
+        model.setBuild(new Build());
+        model.getBuild().addPlugin(plugin);
+        return new MavenProject(model);
+    }
+
     private String zapApiPath() throws IOException, FileNotFoundException {
         InputStream is = getClass().getResourceAsStream("/config.properties");
         Properties p = new Properties();
@@ -100,6 +226,9 @@ public class StartZAPTest {
         setter.setProperty("zapProxyPort", ZAP_PROXY_PORT, startZap);
         setter.setProperty("zapSleep", ZAP_SLEEP, startZap);
         setter.setProperty("zapProgram", zapApiPath(), startZap);
+        setter.setProperty("zapLogLevel", "WARN", startZap);
+        setter.setProperty("zapLogRateLimit", 20, startZap);
+        setter.setProperty("zapLogTailLines", 100, startZap);
         setter.setProperty("skip", false, startZap);
     }
 
@@ -107,4 +236,63 @@ public class StartZAPTest {
         ReflectiveSetter setter = new ReflectiveSetter(StartZAP.class);
         setter.setProperty("skip", true, startZap);
     }
+
+    /**
+     * The API of a ZAProxy which refuses connections while it starts
+     */
+    private static class StartingZapApi extends ZapApi {
+        private final int refusals;
+        private int probes;
+
+        StartingZapApi(int refusals) {
+            super(ZAP_PROXY_HOST, ZAP_PROXY_PORT, null);
+            this.refusals = refusals;
+        }
+
+        @Override
+        public String view(String component, String name, String... params) throws IOException {
+            assertEquals("core/version", component + "/" + name);
+            if (probes++ < refusals) {
+                throw new ConnectException("Connection refused");
+            }
+            return "2.2.0";
+        }
+    }
+
+    /**
+     * A ZAProxy process which is still running and has written nothing
+     */
+    private static class RunningProcess extends Process {
+        private boolean destroyed;
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() {
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            throw new IllegalThreadStateException("running");
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+    }
 }
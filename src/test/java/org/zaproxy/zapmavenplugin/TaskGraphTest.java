@@ -0,0 +1,115 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+/**
+ * Test module for running the tasks at the end of a scan at the same time
+ */
+public class TaskGraphTest {
+
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void runIndependentTasksAtTheSameTime() throws InterruptedException {
+        TaskGraph graph = new TaskGraph(new SystemStreamLog());
+        final CountDownLatch both = new CountDownLatch(2);
+        Callable<Void> meet = new Callable<Void>() {
+            public Void call() throws Exception {
+                both.countDown();
+                if (!both.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("The other task did not run at the same time");
+                }
+                return null;
+            }
+        };
+        graph.add("first", meet);
+        graph.add("second", meet);
+
+        assertTrue(graph.run().isEmpty());
+    }
+
+    @Test
+    public void runTasksAfterTheirDependencies() throws InterruptedException {
+        TaskGraph graph = new TaskGraph(new SystemStreamLog());
+        TaskGraph.Task session = graph.add("session", record("session"));
+        TaskGraph.Task export = graph.add("export", record("export"));
+        TaskGraph.Task cache = graph.add("cache", record("cache"), session, export);
+        graph.addFinally("shutdown", record("shutdown"), cache, null);
+
+        assertTrue(graph.run().isEmpty());
+        assertEquals(4, ran.size());
+        assertEquals(Arrays.asList("cache", "shutdown"), ran.subList(2, 4));
+        assertTrue(cache.isSucceeded());
+    }
+
+    @Test
+    public void skipTasksAfterFailureButRunFinally() throws InterruptedException {
+        TaskGraph graph = new TaskGraph(new SystemStreamLog());
+        TaskGraph.Task export = graph.add("export", new Callable<Void>() {
+            public Void call() throws Exception {
+                throw new IOException("broken report");
+            }
+        });
+        TaskGraph.Task cache = graph.add("cache", record("cache"), export);
+        graph.addFinally("shutdown", record("shutdown"), export);
+
+        Map<TaskGraph.Task, Throwable> failures = graph.run();
+
+        assertEquals(Collections.singleton(export), failures.keySet());
+        assertEquals("broken report", failures.get(export).getMessage());
+        assertFalse(cache.isSucceeded());
+        assertEquals(Collections.singletonList("shutdown"), ran);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectTaskOfOtherGraph() {
+        TaskGraph other = new TaskGraph(new SystemStreamLog());
+        new TaskGraph(new SystemStreamLog()).add("cache", record("cache"), other.add("export", record("export")));
+    }
+
+    @Test
+    public void saveSessionWhileExportingAlerts() throws Throwable {
+        ProcessZAPFixture fixture = new ProcessZAPFixture();
+        try {
+            FakeZapServer zap = fixture.getZap().alerts(2000, 10).scanDurations(0, 0).saveSessionDuration(2000);
+            fixture.set("alertPageSize", 100);
+            fixture.set("saveSession", true);
+
+            fixture.execute();
+
+            List<String> calls = zap.getCalls();
+            int saveStarted = calls.indexOf("core/action/saveSession");
+            int saveDone = calls.indexOf("core/action/saveSession/done");
+            int lastAlerts = calls.lastIndexOf("core/view/alerts");
+            assertTrue(saveStarted < lastAlerts && lastAlerts < saveDone);
+            assertTrue(saveDone < calls.indexOf("core/action/shutdown"));
+            assertEquals(2000, ProcessZAPFixture.countAlerts(fixture.report(".json")));
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    private Callable<Void> record(final String name) {
+        return new Callable<Void>() {
+            public Void call() {
+                ran.add(name);
+                return null;
+            }
+        };
+    }
+}
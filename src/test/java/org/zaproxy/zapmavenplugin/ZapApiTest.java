@@ -0,0 +1,68 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test module for the keep-alive client of the ZAP API
+ */
+public class ZapApiTest {
+
+    private ProcessZAPFixture fixture;
+
+    private FakeZapServer zap;
+
+    private ZapApi api;
+
+    @Before
+    public void setup() throws Throwable {
+        fixture = new ProcessZAPFixture();
+        zap = fixture.getZap();
+        api = new ZapApi("localhost", zap.getPort(), new SystemStreamLog());
+    }
+
+    @After
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Test
+    public void readCompressedViewsAndLists() throws Exception {
+        assertEquals("2.2.0", api.view("core", "version"));
+        List<String> urls = api.list("core", "urls");
+
+        assertEquals(50, urls.size());
+        assertEquals(ProcessZAPFixture.TARGET_URL + "page0", urls.get(0));
+        assertEquals(2, zap.getCompressedResponses());
+    }
+
+    @Test
+    public void reuseConnectionForCalls() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            api.view("core", "version");
+            api.list("core", "urls");
+        }
+
+        assertEquals(40, zap.getCalls().size());
+        assertEquals(1, zap.getConnections());
+    }
+
+    @Test
+    public void reuseConnectionsToZap() throws Throwable {
+        zap.alerts(2000, 10).scanDurations(300, 1000);
+        fixture.set("alertPageSize", 100);
+
+        fixture.execute();
+
+        assertEquals(2000, ProcessZAPFixture.countAlerts(fixture.report(".json")));
+        assertTrue(zap.getConnections() * 4 < zap.getCalls().size());
+        assertTrue(zap.getCompressedResponses() >= zap.count("core/view/alerts"));
+    }
+}
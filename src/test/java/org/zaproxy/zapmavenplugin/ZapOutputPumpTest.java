@@ -0,0 +1,123 @@
+package org.zaproxy.zapmavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+/**
+ * Test module for reading the output of ZAProxy
+ */
+public class ZapOutputPumpTest {
+
+    private static final String OUTPUT = "2013-07-12 22:43:00,123 [main] INFO  Constant - Starting\n"
+            + "2013-07-12 22:43:01,456 [main] WARN  Proxy - Port in use\n"
+            + "java.net.BindException: Address already in use\n"
+            + "\tat java.net.PlainSocketImpl.bind(Native Method)\n"
+            + "2013-07-12 22:43:02,789 [main] INFO  Constant - Stopped\n";
+
+    @Test
+    public void findLevelOfLine() {
+        assertEquals(2, ZapOutputPump.level("2013-07-12 22:43:00,123 [main] INFO  Constant - Starting"));
+        assertEquals(4, ZapOutputPump.level("ERROR Could not start"));
+        assertEquals(-1, ZapOutputPump.level("\tat java.net.PlainSocketImpl.bind(Native Method)"));
+    }
+
+    @Test
+    public void showOnlyLinesOfLevel() throws InterruptedException {
+        RecordingLog log = new RecordingLog();
+        pump(OUTPUT, null, "WARN", 0, 10, log);
+
+        assertEquals(Arrays.asList("2013-07-12 22:43:01,456 [main] WARN  Proxy - Port in use",
+                "java.net.BindException: Address already in use",
+                "\tat java.net.PlainSocketImpl.bind(Native Method)"), log.lines);
+    }
+
+    @Test
+    public void limitLinesPerSecond() throws InterruptedException {
+        RecordingLog log = new RecordingLog();
+        pump(OUTPUT, null, "INFO", 2, 10, log);
+
+        assertEquals(2, log.lines.size());
+    }
+
+    @Test
+    public void keepLastLines() throws InterruptedException {
+        ZapOutputPump pump = pump(OUTPUT, null, "OFF", 0, 2, new RecordingLog());
+
+        assertEquals(Arrays.asList("\tat java.net.PlainSocketImpl.bind(Native Method)",
+                "2013-07-12 22:43:02,789 [main] INFO  Constant - Stopped"), pump.getTail());
+    }
+
+    @Test
+    public void writeAllToLogFile() throws InterruptedException, IOException {
+        File logFile = File.createTempFile("zap", ".log");
+        try {
+            pump(OUTPUT, logFile, "OFF", 0, 1, new RecordingLog());
+
+            assertEquals(OUTPUT, FileUtils.readFileToString(logFile));
+        } finally {
+            logFile.delete();
+        }
+    }
+
+    @Test
+    public void keepReadingWithoutLogFile() throws InterruptedException, IOException {
+        File directory = File.createTempFile("zap", "");
+        directory.delete();
+        directory.mkdirs();
+        try {
+            RecordingLog log = new RecordingLog();
+            ZapOutputPump pump = pump(OUTPUT, directory, "WARN", 0, 10, log);
+
+            // the log file cannot be written over a directory
+            assertTrue(log.lines.get(0).startsWith("Unable to write the output of ZAProxy output test to"));
+            assertEquals(Arrays.asList("2013-07-12 22:43:01,456 [main] WARN  Proxy - Port in use",
+                    "java.net.BindException: Address already in use",
+                    "\tat java.net.PlainSocketImpl.bind(Native Method)"), log.lines.subList(1, log.lines.size()));
+            assertEquals(5, pump.getTail().size());
+        } finally {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    private ZapOutputPump pump(String output, File logFile, String level, int linesPerSecond, int tailLines,
+            RecordingLog log) throws InterruptedException {
+        ZapOutputPump pump = new ZapOutputPump("test", new ByteArrayInputStream(output.getBytes()), logFile, level,
+                linesPerSecond, tailLines, log);
+        pump.start();
+        pump.join();
+        return pump;
+    }
+
+    /**
+     * Log which keeps the lines of ZAProxy passed on to it
+     */
+    private static class RecordingLog extends SystemStreamLog {
+        private final List<String> lines = new ArrayList<String>();
+
+        @Override
+        public void info(CharSequence content) {
+            lines.add(content.toString());
+        }
+
+        @Override
+        public void warn(CharSequence content) {
+            lines.add(content.toString());
+        }
+
+        @Override
+        public void error(CharSequence content) {
+            lines.add(content.toString());
+        }
+    }
+}